@@ -0,0 +1,280 @@
+/**
+ * BpsPatch.java
+ * Encoder for BPS patches, which turn one build of the patch ROM into the next.
+ * Data that stayed in place is read straight from the source, and data that moved is found with a rolling hash
+ * over fixed-size blocks of the source, so a file shifted by an earlier file growing is copied rather than
+ * stored again.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+public class BpsPatch {
+    private static final byte[] MAGIC = "BPS1".getBytes(StandardCharsets.US_ASCII);
+    private static final int SOURCE_READ = 0;
+    private static final int TARGET_READ = 1;
+    private static final int SOURCE_COPY = 2;
+
+    // Matches shorter than a block are stored as new data
+    private static final int BLOCK_SIZE = 32;
+    private static final int HASH_BASE = 257;
+
+    private final byte[] source;
+    private final byte[] target;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private int sourceRelativeOffset = 0;
+    private long copiedBytes = 0;
+
+    /**
+     * Constructor for BpsPatch.
+     *
+     * @param source The previous data.
+     * @param target The new data.
+     */
+    public BpsPatch(byte[] source, byte[] target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    /**
+     * Gets how many bytes of the target the patch copies from the source, once it has been encoded.
+     *
+     * @return The number of copied bytes.
+     */
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    /**
+     * Encodes the patch that turns the source data into the target data: the header, every action and the
+     * checksums. Should only be called once.
+     *
+     * @return The patch.
+     */
+    public byte[] encode() {
+        out.write(MAGIC, 0, MAGIC.length);
+        writeNumber(source.length);
+        writeNumber(target.length);
+        writeNumber(0); // No metadata
+
+        int[] blocks = indexSourceBlocks();
+        int mask = blocks.length - 1;
+        int highPower = power(HASH_BASE, BLOCK_SIZE - 1);
+
+        int pos = 0;
+        int literalStart = 0;
+        int hash = 0;
+        boolean hashValid = false;
+
+        while (pos + BLOCK_SIZE <= target.length) {
+            // Data that didn't move is the cheapest to encode
+            int length = matchLength(pos, pos);
+            if (length >= BLOCK_SIZE) {
+                writeTargetRead(literalStart, pos);
+                writeAction(SOURCE_READ, length);
+                copiedBytes += length;
+                pos += length;
+                literalStart = pos;
+                hashValid = false;
+                continue;
+            }
+
+            if (!hashValid) {
+                hash = hashBlock(target, pos);
+                hashValid = true;
+            }
+
+            int candidate = blocks[hash & mask];
+            if (candidate >= 0 && matchLength(candidate, pos) >= BLOCK_SIZE) {
+                // Extend the match back over data that would otherwise be stored
+                int start = pos;
+                while (start > literalStart && candidate > 0 && source[candidate - 1] == target[start - 1]) {
+                    candidate--;
+                    start--;
+                }
+
+                length = matchLength(candidate, start);
+                writeTargetRead(literalStart, start);
+                writeSourceCopy(candidate, length);
+                copiedBytes += length;
+                pos = start + length;
+                literalStart = pos;
+                hashValid = false;
+                continue;
+            }
+
+            // Roll the hash forward by one byte
+            if (pos + BLOCK_SIZE < target.length) {
+                hash = (hash - (target[pos] & 0xFF) * highPower) * HASH_BASE + (target[pos + BLOCK_SIZE] & 0xFF);
+            }
+            pos++;
+        }
+
+        // Data that didn't move may still end the target after the last full block
+        int length = matchLength(pos, pos);
+        if (pos == literalStart && length > 0 && pos + length == target.length) {
+            writeAction(SOURCE_READ, length);
+            copiedBytes += length;
+        } else {
+            writeTargetRead(literalStart, target.length);
+        }
+
+        writeInt(crc32(source, source.length));
+        writeInt(crc32(target, target.length));
+        byte[] patch = out.toByteArray();
+        writeInt(crc32(patch, patch.length));
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds a hash table of the start of every block of the source.
+     * The table has at least twice as many slots as blocks, and keeps the first block with each hash.
+     *
+     * @return The table, with -1 for unused slots.
+     */
+    private int[] indexSourceBlocks() {
+        int numBlocks = source.length / BLOCK_SIZE;
+        int size = 1;
+        while (size < numBlocks * 2) {
+            size <<= 1;
+        }
+
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        for (int offset = 0; offset + BLOCK_SIZE <= source.length; offset += BLOCK_SIZE) {
+            int slot = hashBlock(source, offset) & (size - 1);
+            if (table[slot] < 0) {
+                table[slot] = offset;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Computes the rolling hash of a block.
+     *
+     * @param data   The data.
+     * @param offset The offset of the block.
+     * @return The hash.
+     */
+    private static int hashBlock(byte[] data, int offset) {
+        int hash = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            hash = hash * HASH_BASE + (data[offset + i] & 0xFF);
+        }
+        return hash;
+    }
+
+    /**
+     * Raises a number to a power, wrapping around like the hash does.
+     *
+     * @param base     The base.
+     * @param exponent The exponent.
+     * @return The result.
+     */
+    private static int power(int base, int exponent) {
+        int out = 1;
+        for (int i = 0; i < exponent; i++) {
+            out *= base;
+        }
+        return out;
+    }
+
+    /**
+     * Counts how many bytes match between the source and target.
+     *
+     * @param sourceOffset The offset in the source.
+     * @param targetOffset The offset in the target.
+     * @return The number of matching bytes.
+     */
+    private int matchLength(int sourceOffset, int targetOffset) {
+        int length = 0;
+        while (sourceOffset + length < source.length && targetOffset + length < target.length &&
+                source[sourceOffset + length] == target[targetOffset + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Writes new data that is stored in the patch itself.
+     *
+     * @param start The offset of the first byte in the target.
+     * @param end   The offset after the last byte in the target.
+     */
+    private void writeTargetRead(int start, int end) {
+        if (end > start) {
+            writeAction(TARGET_READ, end - start);
+            out.write(target, start, end - start);
+        }
+    }
+
+    /**
+     * Writes a copy from anywhere in the source, relative to where the last copy ended.
+     *
+     * @param sourceOffset The offset in the source.
+     * @param length       The number of bytes.
+     */
+    private void writeSourceCopy(int sourceOffset, int length) {
+        writeAction(SOURCE_COPY, length);
+        long relative = (long) sourceOffset - sourceRelativeOffset;
+        writeNumber((Math.abs(relative) << 1) | (relative < 0 ? 1 : 0));
+        sourceRelativeOffset = sourceOffset + length;
+    }
+
+    /**
+     * Writes an action and its length.
+     *
+     * @param action SOURCE_READ, TARGET_READ or SOURCE_COPY.
+     * @param length The number of bytes, at least 1.
+     */
+    private void writeAction(int action, int length) {
+        writeNumber(((long) (length - 1) << 2) | action);
+    }
+
+    /**
+     * Writes a number in the variable-length encoding used by BPS.
+     *
+     * @param value The number.
+     */
+    private void writeNumber(long value) {
+        while (true) {
+            int x = (int) (value & 0x7F);
+            value >>= 7;
+            if (value == 0) {
+                out.write(0x80 | x);
+                return;
+            }
+            out.write(x);
+            value--;
+        }
+    }
+
+    /**
+     * Writes a little-endian 32-bit number.
+     *
+     * @param value The number.
+     */
+    private void writeInt(int value) {
+        out.write(value);
+        out.write(value >> 8);
+        out.write(value >> 16);
+        out.write(value >> 24);
+    }
+
+    /**
+     * Computes the CRC-32 of data.
+     *
+     * @param data   The data.
+     * @param length The number of bytes to check.
+     * @return The CRC-32.
+     */
+    private static int crc32(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+}
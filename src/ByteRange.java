@@ -0,0 +1,83 @@
+/**
+ * ByteRange.java
+ * Range of bytes within a file, such as a single texture, palette or message, used as a key to find ranges with
+ * the same contents. Two ranges are equal if they contain the same bytes, wherever they are stored.
+ */
+
+public class ByteRange {
+    private final byte[] data;
+    private final int start;
+    private final int end;
+    private final int hash;
+
+    /**
+     * Constructs a ByteRange and hashes its contents.
+     *
+     * @param data  The file data.
+     * @param start Offset of the first byte of the range.
+     * @param end   Offset after the last byte of the range.
+     */
+    public ByteRange(byte[] data, int start, int end) {
+        this.data = data;
+        this.start = start;
+        this.end = end;
+
+        int h = 1;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + data[i];
+        }
+        hash = h;
+    }
+
+    /**
+     * Gets the size of the range.
+     *
+     * @return The size in bytes.
+     */
+    public int getSize() {
+        return end - start;
+    }
+
+    /**
+     * Copies the bytes of the range into another array.
+     *
+     * @param dest   The destination array.
+     * @param offset Offset within the destination array.
+     */
+    public void copyTo(byte[] dest, int offset) {
+        System.arraycopy(data, start, dest, offset, end - start);
+    }
+
+    /**
+     * Gets the hash of the range's bytes.
+     *
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Compares the bytes of two ranges.
+     *
+     * @param o The object to compare against.
+     * @return True if both ranges contain the same bytes, otherwise false.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ByteRange)) {
+            return false;
+        }
+        ByteRange other = (ByteRange) o;
+        if (other.hash != hash || other.end - other.start != end - start) {
+            return false;
+        }
+        for (int i = 0; i < end - start; i++) {
+            if (data[start + i] != other.data[other.start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
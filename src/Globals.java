@@ -69,9 +69,17 @@ public class Globals {
             TEXT_FRA_DATA_NAME,
             TEXT_STAFF_DATA_NAME,
     };
+    public static final int TEXT_SEGMENT_NUM = 7;
+    public static final String TEXT_SOURCE_SUFFIX = ".txt";
+    public static final String TEXT_OVERLAY_SUFFIX = "_overlay.txt";
 
     // Code
     public static final String CODE_NAME = "code_patch";
+    public static final String CODE_INPUT_NAME = "code";
+
+    // Objects
+    public static final String OBJECT_TABLE_NAME = "object_table.h";
+    public static final int OBJECT_SEGMENT_NUM = 6;
 
     // Scenes
     public static final int SCENE_SEGMENT_NUM = 2;
@@ -89,8 +97,14 @@ public class Globals {
 
     // ROM writing
     public static final int ROM_BASE = 0x20;
+    public static final long ROM_MAX_SIZE = 0xFFFFFFFFL;
     public static final String ROM_OUT_NAME = "patch_rom";
     public static final String ROM_FILE_LIST_OUT_NAME = "patch_files.txt";
+    public static final String ROM_FILE_INDEX_OUT_NAME = "patch_files.bin";
+    public static final String ROM_DELTA_OUT_NAME = "patch_rom.bps";
+    public static final String ROM_HASH_OUT_NAME = "patch_hash.txt";
+    public static final String ROM_SHARD_OUT_DIR = "shards";
+    public static final String ROM_PLAN_OUT_NAME = "patch_plan.txt";
     public static final String CODE_VARIABLE_OFFSET_LIST_OUT_NAME = "code_table_offsets.txt";
 
     // Meme strings
@@ -171,4 +185,33 @@ public class Globals {
         return ((arr[offsetInArr] & 0xFF) << 8) |
                 (arr[offsetInArr + 1] & 0xFF);
     }
+
+    /**
+     * Writes a 4-byte integer to a byte array at a specified offset.
+     *
+     * @param arr         The byte array to write to.
+     * @param offsetInArr The offset within the array to start writing at.
+     * @param value       The integer value to write.
+     * @throws IndexOutOfBoundsException If the offset plus 4 bytes exceeds the array length.
+     */
+    public static void writeIntToByteArray(byte[] arr, int offsetInArr, int value) {
+        if (offsetInArr + 4 > arr.length) {
+            throw new IndexOutOfBoundsException("Not enough bytes to write an int");
+        }
+        arr[offsetInArr] = (byte) ((value >> 24) & 0xFF);
+        arr[offsetInArr + 1] = (byte) ((value >> 16) & 0xFF);
+        arr[offsetInArr + 2] = (byte) ((value >> 8) & 0xFF);
+        arr[offsetInArr + 3] = (byte) (value & 0xFF);
+    }
+
+    /**
+     * Rounds a value up to the next multiple of an alignment.
+     *
+     * @param value     The value to align.
+     * @param alignment The alignment, must be a power of two.
+     * @return The aligned value.
+     */
+    public static int alignTo(int value, int alignment) {
+        return (value + alignment - 1) & ~(alignment - 1);
+    }
 }
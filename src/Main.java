@@ -5,38 +5,101 @@
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class Main {
     private static String outputPath;
-    private static final ArrayList<File> sceneFiles = new ArrayList<>();
-    private static final ArrayList<File> audioFiles = new ArrayList<>();
-    private static final ArrayList<File> objectFiles = new ArrayList<>();
-    private static final ArrayList<File> textFiles = new ArrayList<>();
-    private static final ArrayList<File> miscFiles = new ArrayList<>();
-    private static File entranceTableFile = null;
-    private static File entranceCutsceneTableFile = null;
+    private static final ArrayList<RomFile> sceneFiles = new ArrayList<>();
+    private static final ArrayList<RomFile> audioFiles = new ArrayList<>();
+    private static final ArrayList<RomFile> objectFiles = new ArrayList<>();
+    private static final ArrayList<RomFile> textFiles = new ArrayList<>();
+    private static final ArrayList<RomFile> miscFiles = new ArrayList<>();
+    private static RomFile entranceTableFile = null;
+    private static RomFile entranceCutsceneTableFile = null;
+    private static RomFile objectTableFile = null;
+    private static RomFile codeFile = null;
+    private static Z64ObjectTable objectTable = null;
+    private static ArrayList<Z64Scene> sceneList = new ArrayList<>();
+    private static boolean exportText = false;
+    private static File vanillaTextDir = null;
+    private static boolean pruneObjects = false;
+    private static boolean dedupTextures = false;
+    private static boolean optimizeDisplayLists = false;
+    private static boolean downgradeTextures = false;
+    private static boolean simplifyCollision = false;
+    private static boolean planOnly = false;
+    private static boolean shardOutput = false;
+    private static boolean deltaOutput = false;
+    private static final ArrayList<PathMatcher> includeGlobs = new ArrayList<>();
+    private static final ArrayList<PathMatcher> excludeGlobs = new ArrayList<>();
+    private static final Z64TextureIndex textureIndex = new Z64TextureIndex();
 
     /**
      * Entry point for the program.
      *
      * @param args Command-line arguments. Requires at least two arguments:
-     *             input directory path and output directory path.
+     *             input directory, .zip or .z64 ROM path and output directory path.
      */
     public static void main(String[] args) {
+        // Answer a question from a previously saved usage index
+        if (args.length > 0 && args[0].equals("query")) {
+            runQuery(args);
+            return;
+        }
+
         if (args.length < 2) {
             System.out.println(OutputHelpers.RED + OutputHelpers.BOLD + "Error: Insufficient arguments provided!" +
                     OutputHelpers.RESET);
             System.out.println(OutputHelpers.YELLOW + "Usage: " + OutputHelpers.RESET + OutputHelpers.CYAN +
-                    "java ProgramName input_dir output_dir" + OutputHelpers.RESET);
+                    "java ProgramName input_dir output_dir [options]" + OutputHelpers.RESET);
+            System.out.println(OutputHelpers.YELLOW + "   or: " + OutputHelpers.RESET + OutputHelpers.CYAN +
+                    "java ProgramName query output_dir actor|transition|object id" + OutputHelpers.RESET);
+            System.out.println(OutputHelpers.YELLOW + "   or: " + OutputHelpers.RESET + OutputHelpers.CYAN +
+                    "java ProgramName query output_dir file name" + OutputHelpers.RESET);
             System.out.println(OutputHelpers.YELLOW + "\tinput_dir: " + OutputHelpers.RESET +
-                    "Input directory containing ROM hack files");
+                    "Input directory or .zip containing ROM hack files, or a debug .z64 ROM of the hack");
             System.out.println(OutputHelpers.YELLOW + "\toutput_dir: " + OutputHelpers.RESET +
                     "Output directory for generated files");
+            System.out.println(OutputHelpers.YELLOW + "\t--export-text: " + OutputHelpers.RESET +
+                    "Also write all messages to editable text files in the output directory");
+            System.out.println(OutputHelpers.YELLOW + "\t--vanilla-text <dir>: " + OutputHelpers.RESET +
+                    "Only output messages that differ from the vanilla text files in <dir>");
+            System.out.println(OutputHelpers.YELLOW + "\t--prune-objects: " + OutputHelpers.RESET +
+                    "Skip object files that no scene or room lists (requires " + Globals.OBJECT_TABLE_NAME + ")");
+            System.out.println(OutputHelpers.YELLOW + "\t--dedup-textures: " + OutputHelpers.RESET +
+                    "Move textures shared by the rooms of a scene into the scene file");
+            System.out.println(OutputHelpers.YELLOW + "\t--optimize-dl: " + OutputHelpers.RESET +
+                    "Remove redundant state commands from room display lists");
+            System.out.println(OutputHelpers.YELLOW + "\t--downgrade-textures: " + OutputHelpers.RESET +
+                    "Convert room textures to I4, I8 or IA8 when no information is lost");
+            System.out.println(OutputHelpers.YELLOW + "\t--simplify-collision: " + OutputHelpers.RESET +
+                    "Weld duplicate vertices and merge or remove redundant collision polygons");
+            System.out.println(OutputHelpers.YELLOW + "\t--include <glob>: " + OutputHelpers.RESET +
+                    "Only use input directory files matching <glob>, may be given more than once");
+            System.out.println(OutputHelpers.YELLOW + "\t--exclude <glob>: " + OutputHelpers.RESET +
+                    "Skip input directory files matching <glob>, may be given more than once");
+            System.out.println(OutputHelpers.YELLOW + "\t--plan: " + OutputHelpers.RESET +
+                    "Only lay out the patch ROM from file sizes and save the plan, without writing it");
+            System.out.println(OutputHelpers.YELLOW + "\t--shards: " + OutputHelpers.RESET +
+                    "Write scenes, objects, misc, text, audio and code as separate patch ROMs, " +
+                    "only rewriting the ones that changed");
+            System.out.println(OutputHelpers.YELLOW + "\t--delta: " + OutputHelpers.RESET +
+                    "Also write a BPS patch from the previous patch ROM in the output directory to the new one");
             return; // Exit if insufficient arguments
         }
 
@@ -44,12 +107,72 @@ public class Main {
         String inputPath = args[0];
         outputPath = args[1];
 
+        // Set options from the user
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--export-text":
+                    exportText = true;
+                    break;
+                case "--prune-objects":
+                    pruneObjects = true;
+                    break;
+                case "--dedup-textures":
+                    dedupTextures = true;
+                    break;
+                case "--optimize-dl":
+                    optimizeDisplayLists = true;
+                    break;
+                case "--downgrade-textures":
+                    downgradeTextures = true;
+                    break;
+                case "--simplify-collision":
+                    simplifyCollision = true;
+                    break;
+                case "--plan":
+                    planOnly = true;
+                    break;
+                case "--shards":
+                    shardOutput = true;
+                    break;
+                case "--delta":
+                    deltaOutput = true;
+                    break;
+                case "--include":
+                    if (++i >= args.length) {
+                        throw new IllegalArgumentException("Missing glob for --include");
+                    }
+                    includeGlobs.add(FileSystems.getDefault().getPathMatcher("glob:" + args[i]));
+                    break;
+                case "--exclude":
+                    if (++i >= args.length) {
+                        throw new IllegalArgumentException("Missing glob for --exclude");
+                    }
+                    excludeGlobs.add(FileSystems.getDefault().getPathMatcher("glob:" + args[i]));
+                    break;
+                case "--vanilla-text":
+                    if (++i >= args.length) {
+                        throw new IllegalArgumentException("Missing directory for --vanilla-text");
+                    }
+                    vanillaTextDir = new File(args[i]);
+                    if (!vanillaTextDir.isDirectory()) {
+                        throw new IllegalArgumentException("Vanilla text directory does not exist: " + args[i]);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
         // Validate input directory
         File inputDir = new File(inputPath);
-        if (!inputDir.exists() || !inputDir.isDirectory()) {
+        boolean inputIsRom = inputDir.isFile() && inputPath.toLowerCase().endsWith(".z64");
+        boolean inputIsZip = inputDir.isFile() && inputPath.toLowerCase().endsWith(".zip");
+        if (!inputIsRom && !inputIsZip && (!inputDir.exists() || !inputDir.isDirectory())) {
             throw new IllegalArgumentException("Input directory does not exist or is not a directory: " + inputPath);
         }
-        System.out.println(OutputHelpers.YELLOW + "Input directory verified: " + inputPath + OutputHelpers.RESET);
+        String inputKind = inputIsRom ? "ROM" : (inputIsZip ? "zip" : "directory");
+        System.out.println(OutputHelpers.YELLOW + "Input " + inputKind + " verified: " + inputPath +
+                OutputHelpers.RESET);
 
         // Validate or create output directory
         File outputDir = new File(outputPath);
@@ -64,18 +187,47 @@ public class Main {
         }
         System.out.println(OutputHelpers.YELLOW + "Output directory verified: " + outputPath + OutputHelpers.RESET);
 
-        // Retrieve files from the input directory
-        File[] files = inputDir.listFiles();
-        if (files == null || files.length == 0) {
-            throw new IllegalArgumentException("Input directory is empty or inaccessible: " + inputPath);
+        // Retrieve files from the input directory or ROM
+        ArrayList<RomFile> files;
+        if (inputIsRom) {
+            files = loadRomFiles(inputDir);
+        } else if (inputIsZip) {
+            files = new ZipInput(inputDir, Main::isIncluded, !planOnly).getFiles();
+        } else {
+            files = loadInputFiles(inputDir);
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("Input " + inputKind + " is empty or inaccessible: " + inputPath);
         }
-        System.out.println(OutputHelpers.BLUE + "Found " + files.length + " files in input directory." + OutputHelpers.RESET);
+        System.out.println(OutputHelpers.BLUE + "Found " + files.size() + " files in input " + inputKind + "." +
+                OutputHelpers.RESET);
 
-        // Split the array of files into individual file type arrays
+        // Split the list of files into individual file type lists
         splitFileTypes(files);
 
+        // Only the assets of a ROM are ported, not its code or overlays
+        if (inputIsRom && !miscFiles.isEmpty()) {
+            System.out.println(OutputHelpers.YELLOW + "    Skipping " + miscFiles.size() +
+                    " ROM files that are not scenes, objects, audio or text" + OutputHelpers.RESET);
+            miscFiles.clear();
+        }
+
+        // Find the audio and text tables that weren't provided inside code
+        if (codeFile != null) {
+            addCodeTables();
+        }
+
+        // A ROM has no other way to provide the tables, so skip what can't be built without them
+        if (inputIsRom) {
+            skipRomFilesWithoutTables();
+        }
+
         // Generate output
-        build();
+        if (planOnly) {
+            plan();
+        } else {
+            build();
+        }
 
         System.out.println(OutputHelpers.GREEN + OutputHelpers.BOLD + "Success!" + OutputHelpers.RESET +
                 " Output generated in: " + outputPath);
@@ -83,23 +235,260 @@ public class Main {
 
 
     /**
-     * Categorizes files into various types based on their names.
+     * Lists the scenes and rooms that use an actor, transition actor or object, using the usage index saved in a
+     * previous output directory. Files of the patch ROM can also be looked up by name, using its file index.
      *
-     * @param files Array of files to categorize.
+     * @param args Command-line arguments: "query", the output directory, the kind of entry and its ID.
+     *             The ID may be decimal or hex with a "0x" prefix. For the "file" kind, the ID is a file name.
+     * @throws IllegalArgumentException if the arguments are invalid or the index doesn't exist.
      */
-    public static void splitFileTypes(File[] files) {
-        for (File f : files) {
-            String fileName = f.getName();
+    private static void runQuery(String[] args) {
+        if (args.length != 4) {
+            throw new IllegalArgumentException("Usage: query output_dir actor|transition|object id, " +
+                    "or query output_dir file name");
+        }
+
+        if (args[2].equals("file")) {
+            queryRomFile(args[1], args[3]);
+            return;
+        }
+
+        File indexFile = new File(args[1] + "/" + Z64UsageIndex.FILE_NAME);
+        if (!indexFile.isFile()) {
+            throw new IllegalArgumentException("No usage index in " + args[1] + ", run Shipify on it first");
+        }
+
+        int kind = Arrays.asList(Z64UsageIndex.KIND_NAMES).indexOf(args[2]);
+        if (kind < 0) {
+            throw new IllegalArgumentException("Unknown kind: " + args[2]);
+        }
+
+        int id = Integer.decode(args[3]);
+        int numFound = Z64UsageIndex.load(indexFile).query(kind, id);
+        System.out.println(OutputHelpers.BLUE + "Found " + numFound + " " + args[2] + " entries with ID 0x" +
+                Integer.toHexString(id).toUpperCase() + OutputHelpers.RESET);
+    }
+
+    /**
+     * Prints the DMA table index, offset and size of a file of the patch ROM saved in a previous output directory.
+     *
+     * @param outputDir The output directory.
+     * @param name      The name of the file.
+     * @throws IllegalArgumentException if the file index doesn't exist.
+     */
+    private static void queryRomFile(String outputDir, String name) {
+        File indexFile = new File(outputDir + "/" + Globals.ROM_FILE_INDEX_OUT_NAME);
+        if (!indexFile.isFile()) {
+            throw new IllegalArgumentException("No file index in " + outputDir + ", run Shipify on it first");
+        }
+
+        RomFileIndex index = RomFileIndex.load(indexFile);
+        int position = index.find(name);
+        if (position < 0) {
+            System.out.println(OutputHelpers.YELLOW + "    " + name + " is not in " + Globals.ROM_OUT_NAME +
+                    OutputHelpers.RESET);
+            return;
+        }
+
+        System.out.println(OutputHelpers.BLUE + "    " + name + ": DMA entry " + index.getDmaIndex(position) +
+                ", offset 0x" + Long.toHexString(index.getOffset(position)).toUpperCase() + ", size 0x" +
+                Integer.toHexString(index.getSize(position)).toUpperCase() + OutputHelpers.RESET);
+    }
+
+    /**
+     * Loads every file in the input directory and its subdirectories that passes the include and exclude globs.
+     * Files are read in parallel while the directory tree is still being walked, so that decompressing
+     * Yaz0 compressed files uses every core. When only planning the layout, files are left unread.
+     * If the output directory is inside the input directory, the files of previous outputs are skipped.
+     *
+     * @param inputDir The input directory.
+     * @return The files found.
+     * @throws IllegalArgumentException if two files have the same name.
+     * @throws RuntimeException         if the directory tree can't be walked.
+     */
+    private static ArrayList<RomFile> loadInputFiles(File inputDir) {
+        Path root;
+        Path outputRoot;
+        try {
+            root = inputDir.toPath().toRealPath();
+            outputRoot = new File(outputPath).toPath().toRealPath();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to resolve input directory: " + inputDir, e);
+        }
+        ArrayList<RomFile> out;
+
+        try (Stream<Path> paths = Files.walk(root)) {
+            out = paths.parallel()
+                    .filter(p -> !p.startsWith(outputRoot))
+                    .filter(Files::isRegularFile)
+                    .filter(p -> isIncluded(root.relativize(p)))
+                    .map(p -> loadInputFile(p.toFile()))
+                    .collect(Collectors.toCollection(ArrayList::new));
+        } catch (IOException | UncheckedIOException e) {
+            throw new RuntimeException("Failed to walk input directory: " + inputDir, e);
+        }
+
+        // Files are classified by name alone, so names must be unique across subdirectories
+        Set<String> names = new HashSet<>();
+        for (RomFile f : out) {
+            if (!names.add(f.getName())) {
+                throw new IllegalArgumentException("More than one input file is named " + f.getName());
+            }
+        }
+
+        return out;
+    }
+
+    /**
+     * Creates the RomFile of an input file, and reads it unless only the layout is being planned.
+     *
+     * @param f The input file.
+     * @return The RomFile.
+     */
+    private static RomFile loadInputFile(File f) {
+        RomFile out = new RomFile(f);
+        if (!planOnly) {
+            out.getData();
+        }
+        return out;
+    }
 
-            // If the file is a directory, continue
-            if (!f.isFile()) {
+    /**
+     * Checks if an input file passes the include and exclude globs.
+     * Globs are matched against both the path within the input directory and the file name.
+     *
+     * @param relativePath The path of the file within the input directory.
+     * @return True if the file is included by any include glob (or there are none) and no exclude glob,
+     * otherwise false.
+     */
+    private static boolean isIncluded(Path relativePath) {
+        return (includeGlobs.isEmpty() || matchesAny(includeGlobs, relativePath)) &&
+                !matchesAny(excludeGlobs, relativePath);
+    }
+
+    /**
+     * Checks if a path matches any of a list of globs, by its whole path or its file name.
+     *
+     * @param globs        The globs.
+     * @param relativePath The path of the file within the input directory.
+     * @return True if any glob matches, otherwise false.
+     */
+    private static boolean matchesAny(ArrayList<PathMatcher> globs, Path relativePath) {
+        for (PathMatcher glob : globs) {
+            if (glob.matches(relativePath) || glob.matches(relativePath.getFileName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Loads every file of a ROM, by name, from its DMA table.
+     *
+     * @param romFile The .z64 ROM file.
+     * @return The files of the ROM. Compressed files are decompressed unless only the layout is being planned,
+     * and uncompressed files are only read from the ROM when used.
+     */
+    private static ArrayList<RomFile> loadRomFiles(File romFile) {
+        Z64Rom inputRom = new Z64Rom(romFile);
+        System.out.println(OutputHelpers.BLUE + "    Found the DMA table at 0x" +
+                Integer.toHexString(inputRom.getDmaDataOffset()).toUpperCase() + OutputHelpers.RESET);
+        if (!planOnly) {
+            inputRom.decompressAll();
+        }
+        return inputRom.getFiles();
+    }
+
+    /**
+     * Searches the hack's code file for the audio and message tables, and adds every table that wasn't
+     * provided as its own file. Tables are only added for audio or text that is being ported.
+     */
+    private static void addCodeTables() {
+        Set<String> provided = new HashSet<>();
+        for (RomFile f : audioFiles) {
+            provided.add(f.getName());
+        }
+        for (RomFile f : textFiles) {
+            provided.add(f.getName());
+        }
+
+        Z64CodeTableFinder finder = new Z64CodeTableFinder(codeFile.getData());
+        for (Map.Entry<String, byte[]> table : finder.getTables().entrySet()) {
+            String name = table.getKey();
+            boolean isAudio = Arrays.asList(Globals.AUDIO_TABLE_NAMES).contains(name);
+            ArrayList<RomFile> files = isAudio ? audioFiles : textFiles;
+
+            if (provided.contains(name) || files.isEmpty() || textTableHasSource(name, provided)) {
                 continue;
             }
 
+            System.out.println(OutputHelpers.BLUE + "    Found " + name + " at [code + 0x" +
+                    Integer.toHexString(finder.getOffset(name)).toUpperCase() + "]" + OutputHelpers.RESET);
+            files.add(new RomFile(table.getValue(), name));
+        }
+    }
+
+    /**
+     * Removes the audio and text files of a ROM whose tables were not found in code, with a warning.
+     * Audio needs all four of its tables, while each language of text only needs its own table.
+     */
+    private static void skipRomFilesWithoutTables() {
+        Set<String> provided = new HashSet<>();
+        for (RomFile f : audioFiles) {
+            provided.add(f.getName());
+        }
+        for (RomFile f : textFiles) {
+            provided.add(f.getName());
+        }
+
+        for (String name : Globals.AUDIO_TABLE_NAMES) {
+            if (!audioFiles.isEmpty() && !provided.contains(name)) {
+                System.out.println(OutputHelpers.YELLOW + "    Skipping audio, " + name +
+                        " was not found in code" + OutputHelpers.RESET);
+                audioFiles.clear();
+            }
+        }
+
+        for (int i = 0; i < Globals.TEXT_BIN_NAMES.length; i++) {
+            String binName = Globals.TEXT_BIN_NAMES[i];
+            String tableName = Globals.TEXT_TABLE_NAMES[i];
+            if (provided.contains(binName) && !provided.contains(tableName)) {
+                System.out.println(OutputHelpers.YELLOW + "    Skipping " + binName + ", " + tableName +
+                        " was not found in code" + OutputHelpers.RESET);
+                textFiles.removeIf(f -> f.getName().equals(binName));
+            }
+        }
+    }
+
+    /**
+     * Checks if a message table will be generated from a message source file instead.
+     *
+     * @param tableName The name of the table.
+     * @param provided  The names of the provided audio and text files.
+     * @return True if the table's language has a message source file, otherwise false.
+     */
+    private static boolean textTableHasSource(String tableName, Set<String> provided) {
+        int index = Arrays.asList(Globals.TEXT_TABLE_NAMES).indexOf(tableName);
+        return index >= 0 && provided.contains(Globals.TEXT_BIN_NAMES[index] + Globals.TEXT_SOURCE_SUFFIX);
+    }
+
+    /**
+     * Categorizes files into various types based on their names.
+     *
+     * @param files List of files to categorize.
+     */
+    public static void splitFileTypes(ArrayList<RomFile> files) {
+        for (RomFile f : files) {
+            String fileName = f.getName();
+
             if (fileName.equals(Globals.CODE_TABLE_ENTRANCE_NAME)) {
                 entranceTableFile = f;
             } else if (fileName.equals(Globals.CODE_TABLE_ENTRANCE_CS_NAME)) {
                 entranceCutsceneTableFile = f;
+            } else if (fileName.equals(Globals.OBJECT_TABLE_NAME)) {
+                objectTableFile = f;
+            } else if (fileName.equals(Globals.CODE_INPUT_NAME)) {
+                codeFile = f;
             } else if (fileName.endsWith("_scene") || fileName.contains("_room_")) {
                 // Check if it is a scene/room file
                 sceneFiles.add(f);
@@ -119,14 +508,10 @@ public class Main {
                 if (added) continue;
 
                 // Check if it is a text file
-                for (String s : Globals.TEXT_FILE_NAMES) {
-                    if (fileName.equals(s)) {
-                        textFiles.add(f);
-                        added = true;
-                        break;
-                    }
+                if (isTextFile(fileName)) {
+                    textFiles.add(f);
+                    continue;
                 }
-                if (added) continue;
 
                 // Add it as a misc. file if none of the other cases are true
                 miscFiles.add(f);
@@ -135,19 +520,41 @@ public class Main {
     }
 
     /**
-     * Builds the output ROM.
+     * Checks if a file name belongs to a text file, including message source files.
+     *
+     * @param fileName The name of the file.
+     * @return True if the file is a text file, otherwise false.
+     */
+    private static boolean isTextFile(String fileName) {
+        for (String s : Globals.TEXT_FILE_NAMES) {
+            if (fileName.equals(s)) {
+                return true;
+            }
+        }
+        for (String s : Globals.TEXT_BIN_NAMES) {
+            if (fileName.equals(s + Globals.TEXT_SOURCE_SUFFIX)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the output ROM, or one ROM per section when sharding the output.
      */
     private static void build() {
         RomWriter rom = new RomWriter();
+        Map<String, RomWriter> shards = new LinkedHashMap<>();
         Z64Code code = new Z64Code();
 
         // Build each section of the rom
-        buildScenes(rom);
-        buildObjects(rom);
-        buildMisc(rom);
-        buildText(rom, code);
-        buildAudio(rom, code);
-        buildCode(rom, code);
+        buildScenes(getShard(rom, shards, "scenes"));
+        buildObjects(getShard(rom, shards, "objects"));
+        buildTextureReport();
+        buildMisc(getShard(rom, shards, "misc"));
+        buildText(getShard(rom, shards, "text"), code);
+        buildAudio(getShard(rom, shards, "audio"), code);
+        buildCode(getShard(rom, shards, "code"), code);
         buildEntranceTable();
         buildEntranceCutsceneTable();
 
@@ -156,7 +563,102 @@ public class Main {
                 OutputHelpers.RESET);
 
         // Save rom to disk
-        rom.saveRom(outputPath);
+        if (shardOutput) {
+            saveShards(shards);
+        } else {
+            rom.setWriteDelta(deltaOutput);
+            rom.saveRom(outputPath);
+        }
+    }
+
+    /**
+     * Gets the ROM writer a section of the ROM is added to.
+     *
+     * @param rom    The ROM writer for the whole ROM.
+     * @param shards The ROM writer of each section, by name.
+     * @param name   The name of the section.
+     * @return A new ROM writer for the section when sharding the output, otherwise the whole ROM's writer.
+     */
+    private static RomWriter getShard(RomWriter rom, Map<String, RomWriter> shards, String name) {
+        if (!shardOutput) {
+            return rom;
+        }
+
+        RomWriter shard = new RomWriter();
+        shards.put(name, shard);
+        return shard;
+    }
+
+    /**
+     * Saves each section of the ROM to its own directory, skipping sections whose contents didn't change since
+     * the last run.
+     *
+     * @param shards The ROM writer of each section, by name.
+     * @throws RuntimeException if a shard directory can't be created.
+     */
+    private static void saveShards(Map<String, RomWriter> shards) {
+        for (Map.Entry<String, RomWriter> shard : shards.entrySet()) {
+            File shardDir = new File(outputPath + "/" + Globals.ROM_SHARD_OUT_DIR + "/" + shard.getKey());
+            if (!shardDir.isDirectory() && !shardDir.mkdirs()) {
+                throw new RuntimeException("Failed to create shard directory: " + shardDir);
+            }
+
+            shard.getValue().setWriteDelta(deltaOutput);
+            boolean saved = shard.getValue().saveRomIfChanged(shardDir.getPath());
+            System.out.println(OutputHelpers.BLUE + "    " + shard.getKey() + " shard " +
+                    (saved ? "written" : "unchanged, skipping") + OutputHelpers.RESET);
+        }
+    }
+
+    /**
+     * Plans the layout of the output ROM from file sizes alone, and saves it without writing the ROM.
+     * Files are added in the same order as build() adds them. Scenes, rooms, objects and miscellaneous files
+     * are never read, so transforms that change their sizes are not planned. Text and audio tables are read,
+     * since the message tables are rebuilt and the code tables are laid out from them.
+     */
+    private static void plan() {
+        RomWriter rom = new RomWriter();
+        Z64Code code = new Z64Code();
+
+        OutputHelpers.printProgress("Planning scenes and rooms");
+        if (dedupTextures) {
+            System.out.println(OutputHelpers.YELLOW + "    Planned scene sizes don't include --dedup-textures" +
+                    OutputHelpers.RESET);
+        }
+        for (RomFile f : sceneFiles) {
+            if (f.getName().endsWith("_scene")) {
+                rom.add(f);
+                for (RomFile room : getRoomFiles(f.getName().replace("_scene", ""))) {
+                    rom.add(room);
+                }
+            }
+        }
+
+        OutputHelpers.printProgress("Planning objects");
+        if (pruneObjects) {
+            System.out.println(OutputHelpers.YELLOW + "    Planned objects include unused objects, " +
+                    "since --prune-objects needs the scenes to be read" + OutputHelpers.RESET);
+        }
+        for (RomFile f : objectFiles) {
+            rom.add(f);
+        }
+
+        buildMisc(rom);
+
+        OutputHelpers.printProgress("Planning text");
+        if (!textFiles.isEmpty() && vanillaTextDir == null) {
+            for (RomFile rf : new Z64Text(textFiles, code)) {
+                rom.add(rf);
+            }
+        }
+
+        buildAudio(rom, code);
+        buildCode(rom, code);
+
+        long romSize = rom.savePlan(outputPath);
+        System.out.println(OutputHelpers.BLUE + "    Planned " + Globals.ROM_OUT_NAME + " size: 0x" +
+                Long.toHexString(romSize).toUpperCase() + " bytes, see " + Globals.ROM_PLAN_OUT_NAME +
+                OutputHelpers.RESET);
     }
 
     /**
@@ -172,8 +674,8 @@ public class Main {
             return;
         }
 
-        for (File f : miscFiles) {
-            rom.add(new RomFile(f));
+        for (RomFile f : miscFiles) {
+            rom.add(f);
         }
     }
 
@@ -190,15 +692,81 @@ public class Main {
             return;
         }
 
-        for (File f : objectFiles) {
+        Set<Integer> usedObjectIds = getUsedObjectIds();
+
+        for (RomFile f : objectFiles) {
+            if (usedObjectIds != null && isUnusedObject(f.getName(), usedObjectIds)) {
+                continue;
+            }
+
             Z64Object newObject = new Z64Object(f);
+            newObject.analyzeTextures();
+            newObject.addTextures(textureIndex);
 
             for (RomFile rf : newObject) {
                 rom.add(rf);
             }
+
+            // Generate xml
+            newObject.saveXml(outputPath);
         }
     }
 
+    /**
+     * Reports textures stored more than once across all scenes, rooms and objects.
+     */
+    private static void buildTextureReport() {
+        OutputHelpers.printProgress("Checking for duplicate textures");
+        textureIndex.printDuplicates();
+    }
+
+    /**
+     * Gathers the IDs of every object listed by the scenes and rooms.
+     * Objects loaded directly by actors are not listed, so unused objects are only skipped on request.
+     *
+     * @return The set of used object IDs, or null if object files can't be mapped to IDs.
+     */
+    private static Set<Integer> getUsedObjectIds() {
+        if (objectTableFile == null) {
+            if (pruneObjects) {
+                System.out.println(OutputHelpers.YELLOW + "    " + Globals.OBJECT_TABLE_NAME +
+                        " was not provided, no objects will be skipped" + OutputHelpers.RESET);
+            }
+            return null;
+        }
+
+        objectTable = new Z64ObjectTable(objectTableFile);
+
+        Set<Integer> out = new HashSet<>();
+        for (Z64Scene scene : sceneList) {
+            out.addAll(scene.getObjectIds());
+        }
+        return out;
+    }
+
+    /**
+     * Checks if no scene or room lists an object, and reports it.
+     *
+     * @param objectName    The name of the object file.
+     * @param usedObjectIds The IDs of every object listed by the scenes and rooms.
+     * @return True if the object should be skipped, otherwise false.
+     */
+    private static boolean isUnusedObject(String objectName, Set<Integer> usedObjectIds) {
+        int objectId = objectTable.getId(objectName);
+        if (objectId < 0) {
+            System.out.println(OutputHelpers.YELLOW + "    " + objectName + " is not in " +
+                    Globals.OBJECT_TABLE_NAME + OutputHelpers.RESET);
+            return false;
+        }
+        if (usedObjectIds.contains(objectId)) {
+            return false;
+        }
+
+        System.out.println(OutputHelpers.YELLOW + "    " + objectName + " is not used by any scene or room" +
+                (pruneObjects ? ", skipping" : "") + OutputHelpers.RESET);
+        return pruneObjects;
+    }
+
     /**
      * Builds the audio section of the ROM.
      *
@@ -235,12 +803,47 @@ public class Main {
             return;
         }
 
+        // Only output the messages that differ from vanilla if requested
+        if (vanillaTextDir != null) {
+            buildTextOverlay();
+            return;
+        }
+
         // Instantiate a Z64Text object and build
         Z64Text text = new Z64Text(textFiles, code);
 
         for (RomFile rf : text) {
             rom.add(rf);
         }
+
+        // Write editable message files if requested
+        if (exportText) {
+            text.exportMessages(outputPath);
+        }
+    }
+
+    /**
+     * Builds a text overlay containing only the messages that differ from the vanilla text.
+     * No message data files or tables are added to the ROM.
+     */
+    private static void buildTextOverlay() {
+        ArrayList<RomFile> vanillaFiles = new ArrayList<>();
+        File[] files = vanillaTextDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile() && isTextFile(f.getName())) {
+                    vanillaFiles.add(new RomFile(f));
+                }
+            }
+        }
+
+        Z64Text text = new Z64Text(textFiles);
+        text.validateMessages();
+        text.writeOverlay(new Z64Text(vanillaFiles), outputPath);
+
+        if (exportText) {
+            text.exportMessages(outputPath);
+        }
     }
 
     /**
@@ -275,7 +878,7 @@ public class Main {
         try (Writer writer = new BufferedWriter(new OutputStreamWriter(
                 Files.newOutputStream(outFile.toPath()), StandardCharsets.UTF_8))) {
             // Open entrance table as byte array
-            byte[] entranceTableData = Globals.fileToByteArr(entranceTableFile);
+            byte[] entranceTableData = entranceTableFile.getData();
 
             // Write each line of the entrance table header
             for (int i = 0; i < entranceTableData.length; i += Globals.ENTRANCE_ENTRY_SIZE) {
@@ -357,13 +960,15 @@ public class Main {
         try (Writer writer = new BufferedWriter(new OutputStreamWriter(
                 Files.newOutputStream(outFile.toPath()), StandardCharsets.UTF_8))) {
             // Open entrance cutscene table as byte array
-            byte[] entranceCsTableData = Globals.fileToByteArr(entranceCutsceneTableFile);
+            byte[] entranceCsTableData = entranceCutsceneTableFile.getData();
+
+            Map<Integer, String> cutscenePaths = getCutscenePaths();
 
             writer.write("EntranceCutscene " + Globals.CODE_TABLE_ENTRANCE_CS_NAME + "[] = {\n");
 
             // Write each line of the entrance cutscene table file
             for (int i = 0; i < entranceCsTableData.length; i += Globals.ENTRANCE_CS_ENTRY_SIZE) {
-                writer.write(formatEntranceCutsceneEntry(entranceCsTableData, i) + "\n");
+                writer.write(formatEntranceCutsceneEntry(entranceCsTableData, i, cutscenePaths) + "\n");
             }
 
             writer.write("};\n");
@@ -372,14 +977,39 @@ public class Main {
         }
     }
 
+    /**
+     * Maps the segment address of every cutscene used by a scene header to its resource path.
+     * Scenes are all loaded into the same segment, so an address used by more than one scene maps to null.
+     *
+     * @return The map of segment addresses to resource paths.
+     */
+    private static Map<Integer, String> getCutscenePaths() {
+        Map<Integer, String> out = new HashMap<>();
+
+        for (Z64Scene scene : sceneList) {
+            for (Integer offset : scene.getCutsceneOffsetList()) {
+                int segmentAddress = (Globals.SCENE_SEGMENT_NUM << 24) | offset;
+                if (out.containsKey(segmentAddress)) {
+                    out.put(segmentAddress, null);
+                } else {
+                    out.put(segmentAddress, scene.getCutscenePath(offset));
+                }
+            }
+        }
+
+        return out;
+    }
+
     /**
      * Formats an entrance cutscene table entry as a string.
      *
      * @param entranceCsTableData Byte array of entrance cutscene table data.
      * @param offset              Index to start reading from.
+     * @param cutscenePaths       Map of cutscene segment addresses to resource paths.
      * @return Formatted string representing the entrance cutscene table entry.
      */
-    private static String formatEntranceCutsceneEntry(byte[] entranceCsTableData, int offset) {
+    private static String formatEntranceCutsceneEntry(byte[] entranceCsTableData, int offset,
+                                                      Map<Integer, String> cutscenePaths) {
         // Get arguments from table entry
         String entrance = DecompEnums.DECOMP_ENTRANCE_INDEX_NAMES[Globals.readShortFromByteArray(entranceCsTableData, offset)];
         int ageRestriction = ((int) entranceCsTableData[offset + 2] & 0xFF);
@@ -391,7 +1021,16 @@ public class Main {
         out += entrance + ", ";
         out += ageRestriction + ", ";
         out += "0x" + Integer.toHexString(flag) + ", ";
-        out += "\"__OTR__scenes/shared/???/???" + Integer.toHexString(segmentAddress) + "???\"},";
+        String path = cutscenePaths.get(segmentAddress);
+        if (path != null) {
+            out += "\"" + path + "\"},";
+        } else {
+            // The cutscene isn't used by any scene header, or more than one scene has a cutscene at this address
+            out += "\"__OTR__scenes/shared/???/???" + Integer.toHexString(segmentAddress) + "???\"},";
+            System.out.println(OutputHelpers.YELLOW + "    " + (cutscenePaths.containsKey(segmentAddress) ?
+                    "Several scenes have" : "No scene has") + " a cutscene at 0x" +
+                    Integer.toHexString(segmentAddress) + ", fill in its path by hand" + OutputHelpers.RESET);
+        }
 
         return out;
     }
@@ -404,10 +1043,53 @@ public class Main {
     private static void buildScenes(RomWriter rom) {
         OutputHelpers.printProgress("Building scenes and rooms");
 
-        ArrayList<Z64Scene> sceneList = genSceneList();
+        sceneList = genSceneList();
+
+        // Index the actors and objects used by every scene and room
+        Z64UsageIndex usageIndex = new Z64UsageIndex();
+        for (Z64Scene scene : sceneList) {
+            scene.addUsage(usageIndex);
+        }
+        usageIndex.save(outputPath);
 
         // Add all the scenes and rooms to the rom
         for (Z64Scene scene : sceneList) {
+            // Check the collision before changing anything
+            scene.checkCollision();
+
+            // Simplify the collision mesh if requested
+            if (simplifyCollision) {
+                int[] numPolygons = scene.simplifyCollision();
+                System.out.println(OutputHelpers.YELLOW + "    " + scene.getName() + " collision polygons: " +
+                        numPolygons[0] + " before, " + numPolygons[1] + " after" + OutputHelpers.RESET);
+            }
+
+            // Remove redundant display list commands if requested
+            if (optimizeDisplayLists) {
+                int removed = scene.optimizeRoomDisplayLists();
+                if (removed > 0) {
+                    System.out.println(OutputHelpers.YELLOW + "    Removed " + removed +
+                            " redundant display list commands from the rooms of " + scene.getName() +
+                            OutputHelpers.RESET);
+                }
+            }
+
+            // Report textures that could use a smaller format, and convert them if requested
+            scene.analyzeTextures(downgradeTextures);
+
+            // Share textures stored in several rooms if requested
+            if (dedupTextures) {
+                int[] movedBytes = scene.moveSharedRoomTextures();
+                if (movedBytes[1] > 0) {
+                    System.out.println(OutputHelpers.YELLOW + "    Moved shared room textures of " + scene.getName() +
+                            " into the scene file: patch_rom grows by 0x" +
+                            Integer.toHexString(movedBytes[0]).toUpperCase() + " bytes, and 0x" +
+                            Integer.toHexString(movedBytes[1]).toUpperCase() +
+                            " bytes of room copies are left out of the XML" + OutputHelpers.RESET);
+                }
+            }
+            scene.addTextures(textureIndex);
+
             // Add file to the rom
             for (RomFile romFile : scene) {
                 rom.add(romFile);
@@ -420,23 +1102,32 @@ public class Main {
 
     /**
      * Generates the scene list by iterating over scene files and constructing Z64Scene objects.
+     * Stops at the first malformed scene or room, printing where it is malformed.
      *
      * @return A list of all generated scenes.
+     * @throws RuntimeException if a scene or room file is malformed.
      */
     private static ArrayList<Z64Scene> genSceneList() {
         ArrayList<Z64Scene> out = new ArrayList<>();
 
-        for (File f : sceneFiles) {
+        for (RomFile f : sceneFiles) {
             // Check if the file is a scene
             if (f.getName().endsWith("_scene")) {
-                // Create a new scene object
-                Z64Scene scene = new Z64Scene(new RomFile(f));
-
-                // Add all rooms
-                addRoomsToScene(scene);
-
-                // Add scene object to the output list
-                out.add(scene);
+                try {
+                    // Create a new scene object
+                    Z64Scene scene = new Z64Scene(f);
+
+                    // Add all rooms
+                    addRoomsToScene(scene);
+
+                    // Add scene object to the output list
+                    out.add(scene);
+                } catch (SceneParseException e) {
+                    System.out.println(OutputHelpers.RED + "    Failed to parse " + e.getFileName() + " at 0x" +
+                            Integer.toHexString(e.getOffset()).toUpperCase() + ": " + e.getReason() +
+                            OutputHelpers.RESET);
+                    throw new RuntimeException(e.getFileName() + " is malformed! Fix it before porting.", e);
+                }
             }
         }
 
@@ -468,12 +1159,24 @@ public class Main {
      * @param scene The scene to which rooms will be added.
      */
     private static void addRoomsToScene(Z64Scene scene) {
-        String sceneName = scene.getName();
-        ArrayList<File> roomInputFiles = new ArrayList<>();
+        for (RomFile f : getRoomFiles(scene.getName())) {
+            scene.addRoom(f);
+        }
+    }
+
+    /**
+     * Gets the room files of a scene, in order of their room index.
+     *
+     * @param sceneName The name of the scene file.
+     * @return The room files.
+     */
+    private static ArrayList<RomFile> getRoomFiles(String sceneName) {
+        ArrayList<RomFile> out = new ArrayList<>();
+        ArrayList<RomFile> roomInputFiles = new ArrayList<>();
         int lastRoomAdded = -1;
 
         // Add all the room file names to the list
-        for (File f : sceneFiles) {
+        for (RomFile f : sceneFiles) {
             String fileName = f.getName();
 
             if (fileName.startsWith(sceneName + "_room_")) {
@@ -482,13 +1185,15 @@ public class Main {
         }
 
         while (lastRoomAdded < roomInputFiles.size() - 1) {
-            for (File f : roomInputFiles) {
+            for (RomFile f : roomInputFiles) {
                 int roomIndex = getIndexFromRoomName(f.getName());
                 if (roomIndex == lastRoomAdded + 1) {
-                    scene.addRoom(new RomFile(f));
+                    out.add(f);
                     lastRoomAdded++;
                 }
             }
         }
+
+        return out;
     }
 }
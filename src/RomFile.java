@@ -5,12 +5,19 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.util.function.Supplier;
 
 public class RomFile {
     private final String name;
-    private final byte[] fileData;
-    private int offset = 0;
+    private byte[] fileData;
+    private ByteBuffer source = null;
+    private File sourceFile = null;
+    private Supplier<byte[]> reader = null;
+    private int unreadSize = -1;
+    private long offset = 0;
 
     /**
      * Constructor for creating a RomFile from raw byte data.
@@ -27,37 +34,99 @@ public class RomFile {
         fileData = rawFile;
     }
 
+    /**
+     * Constructor for creating a RomFile from a slice of a larger buffer, such as a memory-mapped ROM.
+     * The data is only copied out of the buffer the first time it is needed, so files that are never used
+     * never leave the buffer. Yaz0 compressed data is decompressed at the same time.
+     *
+     * @param source The buffer holding exactly the file data.
+     * @param name   The name to associate with this RomFile.
+     */
+    public RomFile(ByteBuffer source, String name) {
+        this.name = name;
+        this.source = source;
+    }
+
+    /**
+     * Constructor for creating a RomFile whose data is read by a callback, such as an entry of a zip archive.
+     * The callback is only called the first time the data is needed, and its result is decompressed if it is
+     * Yaz0 compressed.
+     *
+     * @param reader The callback returning the file data.
+     * @param size   The size of the file data once decompressed.
+     * @param name   The name to associate with this RomFile.
+     */
+    public RomFile(Supplier<byte[]> reader, int size, String name) {
+        this.name = name;
+        this.reader = reader;
+        unreadSize = size;
+    }
+
     /**
      * Constructor for creating a RomFile from a physical file on disk.
-     * Use this when you need to load the file's contents into memory.
+     * The file is only read the first time its data is needed, so its size can be known without reading it.
+     * Yaz0 compressed files are decompressed as they are loaded.
      *
      * @param file The File object representing the file on disk.
-     * @throws IllegalArgumentException If the file is null, not a valid file, or unreadable.
-     * @throws RuntimeException         If an error occurs while reading the file data.
+     * @throws IllegalArgumentException If the file is null, not a valid file, unreadable, or 2 GiB or larger.
      */
     public RomFile(File file) {
         // Validate file input
         if (file == null || !file.isFile() || !file.canRead()) {
             throw new IllegalArgumentException("Invalid or unreadable file: " + file);
         }
+        if (file.length() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("File is too large to read into a byte array: " + file);
+        }
 
         // Set file name
         name = file.getName();
+        sourceFile = file;
+    }
+
+    /**
+     * Decompresses file data if it is Yaz0 compressed.
+     *
+     * @param data The file data.
+     * @param name The name of the file, used in error messages.
+     * @return The decompressed data, or the data itself if it isn't compressed.
+     * @throws RuntimeException If the compressed data is malformed.
+     */
+    private static byte[] decompress(byte[] data, String name) {
+        if (!Yaz0.isCompressed(data)) {
+            return data;
+        }
 
-        // Read file data
         try {
-            fileData = Files.readAllBytes(file.toPath());
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read file: " + file.getName(), e);
+            return Yaz0.decode(data);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Failed to decompress file: " + name, e);
         }
     }
 
     /**
-     * Retrieves the data of the RomFile that is currently stored in memory.
+     * Retrieves the data of the RomFile, reading it into memory the first time.
      *
      * @return A byte array representing the contents of the RomFile.
+     * @throws RuntimeException If an error occurs while reading or decompressing the file data.
      */
     public byte[] getData() {
+        if (sourceFile != null) {
+            try {
+                fileData = decompress(Files.readAllBytes(sourceFile.toPath()), name);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read file: " + name, e);
+            }
+            sourceFile = null;
+        } else if (source != null) {
+            byte[] data = new byte[source.remaining()];
+            source.duplicate().get(data);
+            fileData = decompress(data, name);
+            source = null;
+        } else if (reader != null) {
+            fileData = decompress(reader.get(), name);
+            reader = null;
+        }
         return fileData;
     }
 
@@ -75,9 +144,9 @@ public class RomFile {
      * Retrieves the offset associated with this RomFile.
      * This is the location of the file within the written patch_rom.
      *
-     * @return An integer representing the offset
+     * @return A long representing the offset
      */
-    public int getOffset() {
+    public long getOffset() {
         return offset;
     }
 
@@ -87,16 +156,37 @@ public class RomFile {
      *
      * @param offset The new offset value to be set.
      */
-    public void setOffset(int offset) {
+    public void setOffset(long offset) {
         this.offset = offset;
     }
 
     /**
      * Retrieves the size of the RomFile in bytes.
+     * Data that hasn't been read yet is left unread: only its Yaz0 header is checked, for the decompressed size.
      *
      * @return An integer representing the total size of the RomFile data.
+     * @throws RuntimeException If an error occurs while reading the file.
      */
     public int getSize() {
+        if (fileData == null && unreadSize >= 0) {
+            return unreadSize;
+        }
+        if (sourceFile != null) {
+            try (RandomAccessFile in = new RandomAccessFile(sourceFile, "r")) {
+                byte[] header = new byte[(int) Math.min(in.length(), Yaz0.HEADER_SIZE)];
+                in.readFully(header);
+                unreadSize = Yaz0.isCompressed(header) ? Yaz0.getDecodedSize(header) : (int) in.length();
+                return unreadSize;
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read file: " + name, e);
+            }
+        }
+        if (source != null) {
+            byte[] header = new byte[Math.min(source.remaining(), Yaz0.HEADER_SIZE)];
+            source.duplicate().get(header);
+            unreadSize = Yaz0.isCompressed(header) ? Yaz0.getDecodedSize(header) : source.remaining();
+            return unreadSize;
+        }
         return fileData.length;
     }
 }
@@ -0,0 +1,235 @@
+/**
+ * RomFileIndex.java
+ * Binary index of the files in a patch ROM, saved next to patch_files.txt.
+ * Entries are sorted by file name so a file's DMA table index, offset and size can be found with a binary
+ * search, instead of scanning patch_files.txt line by line.
+ * <p>
+ * Layout, big-endian: magic, version, number of files, string table size, then one 20-byte entry per file
+ * (name offset, DMA table index, 64-bit ROM offset, size) and finally the string table of UTF-8 names, in the same
+ * sorted order as the entries.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+public class RomFileIndex {
+    private static final int MAGIC = 0x53484649; // "SHFI"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 0x10;
+    private static final int ENTRY_SIZE = 0x14;
+
+    // The index in its saved layout, either built in memory or mapped from a saved file
+    private final ByteBuffer buffer;
+    private final String source;
+    private final int numFiles;
+    private final int stringTable;
+    private final int stringTableSize;
+
+    /**
+     * Constructor for RomFileIndex.
+     * Indexes files whose offsets have already been set by the RomWriter.
+     *
+     * @param romFiles The files of the ROM, in DMA table order.
+     */
+    public RomFileIndex(List<RomFile> romFiles) {
+        source = Globals.ROM_FILE_INDEX_OUT_NAME;
+        numFiles = romFiles.size();
+
+        // Sort the DMA table indices by name
+        byte[][] names = new byte[numFiles][];
+        Integer[] order = new Integer[numFiles];
+        int namesSize = 0;
+        for (int i = 0; i < numFiles; i++) {
+            names[i] = romFiles.get(i).getName().getBytes(StandardCharsets.UTF_8);
+            namesSize += names[i].length;
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> names[i], RomFileIndex::compareNames));
+
+        stringTable = HEADER_SIZE + numFiles * ENTRY_SIZE;
+        stringTableSize = namesSize;
+        buffer = ByteBuffer.allocate(stringTable + stringTableSize);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(numFiles);
+        buffer.putInt(stringTableSize);
+
+        int nameOffset = 0;
+        for (int i = 0; i < numFiles; i++) {
+            RomFile romFile = romFiles.get(order[i]);
+            buffer.putInt(nameOffset);
+            buffer.putInt(order[i]);
+            buffer.putLong(romFile.getOffset());
+            buffer.putInt(romFile.getSize());
+            nameOffset += names[order[i]].length;
+        }
+        for (int i = 0; i < numFiles; i++) {
+            buffer.put(names[order[i]]);
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Constructor for RomFileIndex, used when loading a saved index.
+     *
+     * @param buffer The saved index.
+     * @param source The name of the index file, used in error messages.
+     * @throws IllegalArgumentException if the buffer is not a ROM file index.
+     */
+    private RomFileIndex(ByteBuffer buffer, String source) {
+        this.buffer = buffer;
+        this.source = source;
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a ROM file index: " + source);
+        }
+
+        numFiles = buffer.getInt(8);
+        stringTableSize = buffer.getInt(12);
+        if (numFiles < 0 || stringTableSize < 0 ||
+                HEADER_SIZE + (long) numFiles * ENTRY_SIZE + stringTableSize > buffer.capacity()) {
+            throw new IllegalArgumentException("Truncated ROM file index: " + source);
+        }
+        stringTable = HEADER_SIZE + numFiles * ENTRY_SIZE;
+    }
+
+    /**
+     * Compares two UTF-8 names byte by byte, as unsigned values.
+     *
+     * @param a The first name.
+     * @param b The second name.
+     * @return A negative number, zero or a positive number if a sorts before, with or after b.
+     */
+    private static int compareNames(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Compares the name of an entry with a UTF-8 name, reading the entry's name straight from the index.
+     *
+     * @param position The position of the entry.
+     * @param key      The name to compare against.
+     * @return A negative number, zero or a positive number if the entry sorts before, with or after the name.
+     * @throws IllegalArgumentException if the entry's name is outside of the string table.
+     */
+    private int compareName(int position, byte[] key) {
+        int entry = HEADER_SIZE + position * ENTRY_SIZE;
+        int nameStart = buffer.getInt(entry);
+        int nameEnd = (position + 1 < numFiles) ? buffer.getInt(entry + ENTRY_SIZE) : stringTableSize;
+        if (nameStart < 0 || nameEnd < nameStart || nameEnd > stringTableSize) {
+            throw new IllegalArgumentException("Malformed ROM file index: " + source);
+        }
+
+        int length = Math.min(nameEnd - nameStart, key.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (buffer.get(stringTable + nameStart + i) & 0xFF) - (key[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return (nameEnd - nameStart) - key.length;
+    }
+
+    /**
+     * Saves the index to a file in the output directory.
+     *
+     * @param outPath The output directory.
+     * @throws RuntimeException if an error occurs during file writing.
+     */
+    public void save(String outPath) {
+        File outFile = new File(outPath + "/" + Globals.ROM_FILE_INDEX_OUT_NAME);
+
+        try (OutputStream out = Files.newOutputStream(outFile.toPath())) {
+            out.write(buffer.array(), 0, buffer.limit());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Loads an index saved by save(), by memory-mapping it.
+     * Entries are read straight from the mapped file when they are looked up, so loading doesn't depend on the
+     * number of files.
+     *
+     * @param file The index file.
+     * @return The loaded index.
+     * @throws IllegalArgumentException if the file is not a ROM file index.
+     * @throws RuntimeException         if an error occurs while reading the file.
+     */
+    public static RomFileIndex load(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new RomFileIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file.toString());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read ROM file index: " + file, e);
+        }
+    }
+
+    /**
+     * Finds a file in the index by name.
+     *
+     * @param name The name of the file.
+     * @return The position of the file within the index, or -1 if there is no file with that name.
+     */
+    public int find(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = numFiles - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareName(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the DMA table index of a file.
+     *
+     * @param position The position of the file, as returned by find().
+     * @return The DMA table index.
+     */
+    public int getDmaIndex(int position) {
+        return buffer.getInt(HEADER_SIZE + position * ENTRY_SIZE + 4);
+    }
+
+    /**
+     * Gets the offset of a file within the patch ROM.
+     *
+     * @param position The position of the file, as returned by find().
+     * @return The offset.
+     */
+    public long getOffset(int position) {
+        return buffer.getLong(HEADER_SIZE + position * ENTRY_SIZE + 8);
+    }
+
+    /**
+     * Gets the size of a file.
+     *
+     * @param position The position of the file, as returned by find().
+     * @return The size in bytes.
+     */
+    public int getSize(int position) {
+        return buffer.getInt(HEADER_SIZE + position * ENTRY_SIZE + 16);
+    }
+}
@@ -5,12 +5,18 @@
  */
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 
 public class RomWriter {
     private final ArrayList<RomFile> romFiles = new ArrayList<RomFile>();
+    private boolean writeDelta = false;
 
     /**
      * Adds a RomFile to the writer's internal list.
@@ -21,6 +27,15 @@ public class RomWriter {
         romFiles.add(romFile);
     }
 
+    /**
+     * Sets whether saving the ROM also writes a BPS patch from the ROM previously saved in the same place.
+     *
+     * @param writeDelta True to write the patch, otherwise false.
+     */
+    public void setWriteDelta(boolean writeDelta) {
+        this.writeDelta = writeDelta;
+    }
+
     /**
      * Calculates the total length of the DMA table.
      * Each entry in the DMA table is 16 bytes, including a final padding entry.
@@ -36,64 +51,67 @@ public class RomWriter {
      * The offsets are calculated sequentially, starting after the DMA table.
      *
      * @return The size of the ROM in bytes after setting all file offsets.
+     * @throws IllegalArgumentException if the ROM would be too large for the DMA table's 32-bit offsets.
      */
-    private int setOffsets() {
-        int curOffset = Globals.ROM_BASE + getDmaTableLength();
+    private long setOffsets() {
+        long curOffset = Globals.ROM_BASE + getDmaTableLength();
 
         for (RomFile romFile : romFiles) {
             romFile.setOffset(curOffset);
             curOffset += romFile.getSize();
         }
+
+        if (curOffset > Globals.ROM_MAX_SIZE) {
+            throw new IllegalArgumentException(Globals.ROM_OUT_NAME + " would be 0x" +
+                    Long.toHexString(curOffset).toUpperCase() + " bytes, more than the 4 GiB its DMA table can address");
+        }
         return curOffset;
     }
 
     /**
-     * Writes the DMA table to the start of the ROM data array.
-     * The DMA table contains file start and end offsets for each RomFile.
+     * Writes the DMA table after the zeroed start of the ROM.
+     * The DMA table contains file start and end offsets for each RomFile, as unsigned 32-bit values.
      *
-     * @param out The byte array representing the ROM data to be written.
+     * @param out The buffer holding the start of the ROM, up to the end of the DMA table.
      */
-    private void writeDmaTable(byte[] out) {
+    private void writeDmaTable(ByteBuffer out) {
         int offset = Globals.ROM_BASE;
 
         for (RomFile file : romFiles) {
-            int fileStart = file.getOffset();
-            int fileEnd = fileStart + file.getSize();
+            int fileStart = (int) file.getOffset();
+            int fileEnd = (int) (file.getOffset() + file.getSize());
 
-            // Write start address of the file
-            out[offset + 0] = out[offset + 0 + 8] = (byte) ((fileStart >> 24) & 0xFF);
-            out[offset + 1] = out[offset + 1 + 8] = (byte) ((fileStart >> 16) & 0xFF);
-            out[offset + 2] = out[offset + 2 + 8] = (byte) ((fileStart >> 8) & 0xFF);
-            out[offset + 3] = out[offset + 3 + 8] = (byte) (fileStart & 0xFF);
+            // Write start address of the file, as both its virtual and physical address
+            out.putInt(offset, fileStart);
+            out.putInt(offset + 8, fileStart);
 
             // Write end address of the file
-            out[offset + 4 + 0] = (byte) ((fileEnd >> 24) & 0xFF);
-            out[offset + 4 + 1] = (byte) ((fileEnd >> 16) & 0xFF);
-            out[offset + 4 + 2] = (byte) ((fileEnd >> 8) & 0xFF);
-            out[offset + 4 + 3] = (byte) (fileEnd & 0xFF);
+            out.putInt(offset + 4, fileEnd);
 
             // Zero the last four bytes of the entry
-            for (int j = 0; j < 4; j++) {
-                out[offset + 12 + j] = 0;
-            }
+            out.putInt(offset + 12, 0);
 
             offset += 16;
         }
     }
 
     /**
-     * Copies the data of a RomFile into the ROM's data array at its specified offset.
+     * Writes a whole buffer to a channel.
      *
-     * @param romOut  The byte array representing the ROM data to be written to.
-     * @param romFile The RomFile to be written into the ROM data.
+     * @param channel The channel to write to.
+     * @param data    The data to write.
+     * @throws IOException if an error occurs during writing.
      */
-    private void writeFileToRomArray(byte[] romOut, RomFile romFile) {
-        System.arraycopy(romFile.getData(), 0, romOut, romFile.getOffset(), romFile.getSize());
+    private static void writeFully(FileChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
     }
 
     /**
      * Saves the constructed ROM and its file list to the specified output path.
-     * Writes the ROM binary file and a corresponding file list for reference.
+     * Writes the ROM binary file, a corresponding file list for reference and a binary index of the files
+     * by name. The ROM is streamed to disk one file at a time, so it never has to fit in a single array.
      *
      * @param outPath The directory path where the ROM and file list will be saved.
      */
@@ -102,15 +120,7 @@ public class RomWriter {
         ArrayList<String> romFileNameList = new ArrayList<>();
 
         // Set the offsets within the files
-        int romSize = setOffsets();
-
-        // Allocate ROM data array
-        byte[] outRomData = new byte[romSize];
-
-        // Fill the first 0x20 bytes of the ROM with zeros
-        for (int i = 0; i < Globals.ROM_BASE; i++) {
-            outRomData[i] = 0;
-        }
+        setOffsets();
 
         // Create the ROM output file
         File outRomFile = new File(outPath + "/" + Globals.ROM_OUT_NAME);
@@ -118,18 +128,21 @@ public class RomWriter {
         // Create the ROM file list output file
         File outRomFileListFile = new File(outPath + "/" + Globals.ROM_FILE_LIST_OUT_NAME);
 
-        // Write the DMA table to the start of the ROM
-        writeDmaTable(outRomData);
+        // Keep the previous ROM to patch from
+        byte[] previousRom = writeDelta ? readPreviousRom(outRomFile) : null;
 
-        // Add each file to the ROM output data array
-        for (RomFile romFile : romFiles) {
-            writeFileToRomArray(outRomData, romFile);
-            romFileNameList.add(romFile.getName());
-        }
+        // The first 0x20 bytes of the ROM are zeros, followed by the DMA table
+        ByteBuffer romStart = ByteBuffer.allocate(Globals.ROM_BASE + getDmaTableLength());
+        writeDmaTable(romStart);
 
-        // Output the ROM binary file
-        try (FileOutputStream outputStream = new FileOutputStream(outRomFile)) {
-            outputStream.write(outRomData);
+        // Output the ROM binary file, followed by each file in order
+        try (FileChannel channel = FileChannel.open(outRomFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, romStart);
+            for (RomFile romFile : romFiles) {
+                writeFully(channel, ByteBuffer.wrap(romFile.getData()));
+                romFileNameList.add(romFile.getName());
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -143,5 +156,156 @@ public class RomWriter {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+
+        // Output the index of the files by name
+        new RomFileIndex(romFiles).save(outPath);
+
+        // Output the patch from the previous ROM
+        if (previousRom != null) {
+            writeDeltaPatch(outPath, previousRom, outRomFile);
+        }
+    }
+
+    /**
+     * Reads the ROM previously saved in the output directory, before it is replaced.
+     *
+     * @param outRomFile The ROM output file.
+     * @return The previous ROM, or null if there is none or it is too large to patch from.
+     * @throws RuntimeException if an error occurs while reading the ROM.
+     */
+    private static byte[] readPreviousRom(File outRomFile) {
+        if (!outRomFile.isFile()) {
+            return null;
+        }
+        if (outRomFile.length() > Integer.MAX_VALUE) {
+            System.out.println(OutputHelpers.YELLOW + "    The previous " + Globals.ROM_OUT_NAME +
+                    " is too large to patch from, no " + Globals.ROM_DELTA_OUT_NAME + " will be written" +
+                    OutputHelpers.RESET);
+            return null;
+        }
+
+        try {
+            return Files.readAllBytes(outRomFile.toPath());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes a BPS patch that turns the previous ROM into the one just saved.
+     *
+     * @param outPath     The directory path where the patch will be saved.
+     * @param previousRom The previous ROM.
+     * @param outRomFile  The ROM just saved.
+     * @throws RuntimeException if an error occurs while reading the ROM or writing the patch.
+     */
+    private static void writeDeltaPatch(String outPath, byte[] previousRom, File outRomFile) {
+        if (outRomFile.length() > Integer.MAX_VALUE) {
+            System.out.println(OutputHelpers.YELLOW + "    " + Globals.ROM_OUT_NAME + " is too large to patch to, " +
+                    "no " + Globals.ROM_DELTA_OUT_NAME + " will be written" + OutputHelpers.RESET);
+            return;
+        }
+
+        try {
+            byte[] rom = Files.readAllBytes(outRomFile.toPath());
+            BpsPatch patch = new BpsPatch(previousRom, rom);
+            byte[] patchData = patch.encode();
+            Files.write(new File(outPath + "/" + Globals.ROM_DELTA_OUT_NAME).toPath(), patchData);
+
+            System.out.println(OutputHelpers.BLUE + "    Wrote " + Globals.ROM_DELTA_OUT_NAME + ": 0x" +
+                    Integer.toHexString(patchData.length).toUpperCase() + " bytes, reusing 0x" +
+                    Long.toHexString(patch.getCopiedBytes()).toUpperCase() + " of 0x" +
+                    Integer.toHexString(rom.length).toUpperCase() + " bytes of the previous build" +
+                    OutputHelpers.RESET);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Computes a SHA-256 hash of the ROM's contents: the name, size and data of every file, in order.
+     * Two ROMs with the same hash have the same DMA table, file list and data.
+     *
+     * @return The hash as a hex string.
+     */
+    public String getHash() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        for (RomFile romFile : romFiles) {
+            digest.update(romFile.getName().getBytes(StandardCharsets.UTF_8));
+            digest.update(ByteBuffer.allocate(5).put((byte) 0).putInt(romFile.getSize()).array());
+            digest.update(romFile.getData());
+        }
+
+        StringBuilder out = new StringBuilder();
+        for (byte b : digest.digest()) {
+            out.append(String.format("%02x", b));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Saves the ROM like saveRom(), unless the ROM already saved in the directory has the same contents.
+     * The hash of the contents is saved next to the ROM, to compare against on the next run.
+     *
+     * @param outPath The directory path where the ROM and file list will be saved.
+     * @return True if the ROM was saved, or false if it was unchanged.
+     * @throws RuntimeException if an error occurs while reading or writing the hash.
+     */
+    public boolean saveRomIfChanged(String outPath) {
+        String hash = getHash();
+        File hashFile = new File(outPath + "/" + Globals.ROM_HASH_OUT_NAME);
+        File romFile = new File(outPath + "/" + Globals.ROM_OUT_NAME);
+
+        try {
+            if (hashFile.isFile() && romFile.isFile() &&
+                    new String(Files.readAllBytes(hashFile.toPath()), StandardCharsets.UTF_8).trim().equals(hash)) {
+                // A patch left from an earlier run no longer applies to the unchanged ROM
+                if (writeDelta) {
+                    Files.deleteIfExists(new File(outPath + "/" + Globals.ROM_DELTA_OUT_NAME).toPath());
+                }
+                return false;
+            }
+
+            saveRom(outPath);
+            Files.write(hashFile.toPath(), (hash + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Lays out the ROM without reading or writing any file data, and saves the planned layout.
+     * Each line of the plan gives a file's DMA table index, start and end offsets and name.
+     *
+     * @param outPath The directory path where the plan will be saved.
+     * @return The size the ROM would have, in bytes.
+     */
+    public long savePlan(String outPath) {
+        long romSize = setOffsets();
+
+        File outPlanFile = new File(outPath + "/" + Globals.ROM_PLAN_OUT_NAME);
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(outPlanFile.toPath()), StandardCharsets.UTF_8))) {
+            writer.write(String.format("DMA table : 0x%08X-0x%08X\n", Globals.ROM_BASE,
+                    Globals.ROM_BASE + getDmaTableLength()));
+            for (int i = 0; i < romFiles.size(); i++) {
+                RomFile romFile = romFiles.get(i);
+                writer.write(String.format("%4d : 0x%08X-0x%08X %s\n", i, romFile.getOffset(),
+                        romFile.getOffset() + romFile.getSize(), romFile.getName()));
+            }
+            writer.write(String.format("\nend : 0x%08X\n", romSize));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return romSize;
     }
 }
@@ -0,0 +1,54 @@
+/**
+ * SceneParseException.java
+ * Exception thrown when a scene or room file is malformed, such as a header with no end command or a
+ * segment address pointing outside of the file.
+ */
+
+public class SceneParseException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final String fileName;
+    private final int offset;
+    private final String reason;
+
+    /**
+     * Constructs a SceneParseException.
+     *
+     * @param fileName The name of the malformed scene or room file.
+     * @param offset   Offset of the malformed data within the file.
+     * @param reason   Description of what is wrong with the data.
+     */
+    public SceneParseException(String fileName, int offset, String reason) {
+        super(fileName + " 0x" + Integer.toHexString(offset).toUpperCase() + ": " + reason);
+        this.fileName = fileName;
+        this.offset = offset;
+        this.reason = reason;
+    }
+
+    /**
+     * Gets the name of the malformed file.
+     *
+     * @return The file name.
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Gets the offset of the malformed data within the file.
+     *
+     * @return The offset.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the description of what is wrong with the data.
+     *
+     * @return The reason the file could not be parsed.
+     */
+    public String getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Yaz0.java
+ * Decoder for Yaz0, the compression used for files in Zelda 64 ROMs and by some hack toolchains.
+ */
+
+public class Yaz0 {
+    private static final int MAGIC = 0x59617A30; // "Yaz0"
+    public static final int HEADER_SIZE = 0x10;
+
+    /**
+     * Checks if data starts with a Yaz0 header.
+     *
+     * @param data The data to check.
+     * @return True if the data is Yaz0 compressed, otherwise false.
+     */
+    public static boolean isCompressed(byte[] data) {
+        return data.length >= HEADER_SIZE && Globals.readIntFromByteArray(data, 0) == MAGIC;
+    }
+
+    /**
+     * Gets the decompressed size given by a Yaz0 header, without decompressing anything.
+     *
+     * @param header The compressed data, or at least its header.
+     * @return The decompressed size.
+     * @throws IllegalArgumentException if the data is not Yaz0 or the size is invalid.
+     */
+    public static int getDecodedSize(byte[] header) {
+        if (!isCompressed(header)) {
+            throw new IllegalArgumentException("Missing Yaz0 header");
+        }
+
+        int size = Globals.readIntFromByteArray(header, 4);
+        if (size < 0) {
+            throw new IllegalArgumentException("Invalid Yaz0 size: 0x" + Integer.toHexString(size));
+        }
+        return size;
+    }
+
+    /**
+     * Decompresses Yaz0 data into a buffer of the size given by the header.
+     *
+     * @param src The compressed data, starting with the Yaz0 header.
+     * @return The decompressed data.
+     * @throws IllegalArgumentException if the data is not Yaz0, is truncated or refers to data before its start.
+     */
+    public static byte[] decode(byte[] src) {
+        int size = getDecodedSize(src);
+        byte[] dst = new byte[size];
+        int s = HEADER_SIZE;
+        int d = 0;
+
+        try {
+            while (d < size) {
+                // Each bit of the group header selects a literal byte (1) or a back-reference (0)
+                int groupHeader = src[s++] & 0xFF;
+
+                for (int bit = 0x80; bit != 0 && d < size; bit >>= 1) {
+                    if ((groupHeader & bit) != 0) {
+                        dst[d++] = src[s++];
+                        continue;
+                    }
+
+                    int b1 = src[s++] & 0xFF;
+                    int b2 = src[s++] & 0xFF;
+                    int copyFrom = d - (((b1 & 0xF) << 8) | b2) - 1;
+                    int length = (b1 >> 4 == 0) ? (src[s++] & 0xFF) + 0x12 : (b1 >> 4) + 2;
+
+                    if (copyFrom < 0 || d + length > size) {
+                        throw new IllegalArgumentException("Invalid Yaz0 back-reference at 0x" +
+                                Integer.toHexString(s).toUpperCase());
+                    }
+
+                    // References may overlap the bytes being written, so copy one byte at a time
+                    for (int end = d + length; d < end; ) {
+                        dst[d++] = dst[copyFrom++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated Yaz0 data", e);
+        }
+
+        return dst;
+    }
+}
@@ -4,7 +4,6 @@
  * Handles loading and verifying the required audio binaries and tables for the game.
  */
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.Iterator;
 
@@ -21,22 +20,22 @@ public class Z64Audio implements Iterable<RomFile> {
      * @param code       Instance of Z64Code to manage audio tables.
      * @throws RuntimeException if any required audio files are missing.
      */
-    public Z64Audio(ArrayList<File> audioFiles, Z64Code code) {
+    public Z64Audio(ArrayList<RomFile> audioFiles, Z64Code code) {
         // Load all audio-related files
-        for (File f : audioFiles) {
+        for (RomFile f : audioFiles) {
             String fileName = f.getName();
 
             // Load audio tables into the Z64Code instance
             for (String tableName : Globals.AUDIO_TABLE_NAMES) {
                 if (fileName.equals(tableName)) {
-                    code.addArray(Globals.fileToByteArr(f), tableName);
+                    code.addArray(f.getData(), tableName);
                 }
             }
 
             // Load audio binaries into the ROM file list
             for (String binName : Globals.AUDIO_BIN_NAMES) {
                 if (fileName.equals(binName)) {
-                    audioRomFiles.add(new RomFile(f));
+                    audioRomFiles.add(f);
                 }
             }
         }
@@ -0,0 +1,335 @@
+/**
+ * Z64CodeTableFinder.java
+ * Finds the audio and message tables inside a hack's code file, so they don't have to be carved out by hand.
+ * Candidates are found with a cheap check of their first words, then validated against the structure of
+ * the whole table.
+ */
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Z64CodeTableFinder {
+    // Audio tables: a 0x10 byte header holding the number of entries, followed by 0x10 byte entries
+    private static final int AUDIO_HEADER_SIZE = 0x10;
+    private static final int AUDIO_ENTRY_SIZE = 0x10;
+    private static final int AUDIO_MAX_ENTRIES = 0x400;
+    private static final int AUDIO_MAX_MEDIUM = 3;
+    private static final int AUDIO_MAX_CACHE_POLICY = 4;
+    private static final int SEQUENCE_FONT_MAX_FONTS = 16;
+
+    // Message tables: 8 byte entries (text ID, type/position, padding, segment address) ending with 0xFFFF
+    private static final int MESSAGE_ENTRY_SIZE = 8;
+    private static final int MESSAGE_POINTER_SIZE = 4;
+    private static final int MESSAGE_MIN_ENTRIES = 8;
+    private static final int TEXT_ID_END = 0xFFFF;
+
+    private final byte[] code;
+    private final Map<String, byte[]> tables = new LinkedHashMap<>();
+    private final Map<String, Integer> offsets = new LinkedHashMap<>();
+
+    /**
+     * Constructor for Z64CodeTableFinder.
+     * Searches the code file for every audio and message table.
+     *
+     * @param code The code file data.
+     */
+    public Z64CodeTableFinder(byte[] code) {
+        this.code = code;
+        findAudioTables();
+        findMessageTables();
+    }
+
+    /**
+     * Gets every table that was found.
+     *
+     * @return The table data, by table name.
+     */
+    public Map<String, byte[]> getTables() {
+        return tables;
+    }
+
+    /**
+     * Gets the offset of a table within the code file.
+     *
+     * @param name The name of the table.
+     * @return The offset, or -1 if the table was not found.
+     */
+    public int getOffset(String name) {
+        Integer offset = offsets.get(name);
+        return (offset == null) ? -1 : offset;
+    }
+
+    /**
+     * Records a table that was found.
+     *
+     * @param name   The name of the table.
+     * @param offset Offset of the table within code.
+     * @param size   Size of the table in bytes.
+     */
+    private void addTable(String name, int offset, int size) {
+        tables.put(name, Arrays.copyOfRange(code, offset, offset + size));
+        offsets.put(name, offset);
+    }
+
+    /**
+     * Reads an unsigned 16-bit value from code.
+     *
+     * @param offset The offset of the value.
+     * @return The value.
+     */
+    private int readU16(int offset) {
+        return ((code[offset] & 0xFF) << 8) | (code[offset + 1] & 0xFF);
+    }
+
+    /**
+     * Finds the sound font, sequence and sample bank tables, and the sequence font table.
+     * Sound font entries hold instrument counts, so they are told apart by their non-zero short data.
+     * The sequence table has as many entries as the sequence font table, which tells it apart from the
+     * sample bank table.
+     */
+    private void findAudioTables() {
+        int soundFontTable = -1;
+        int[] plainTables = new int[2];
+        int numPlainTables = 0;
+
+        for (int offset = 0; offset + AUDIO_HEADER_SIZE + AUDIO_ENTRY_SIZE <= code.length; offset += 0x10) {
+            // Quick check of the header and first entry before validating the whole table
+            if ((code[offset + 2] | code[offset + 3] | code[offset + 8] | code[offset + 12]) != 0 ||
+                    Globals.readIntFromByteArray(code, offset + AUDIO_HEADER_SIZE) != 0 ||
+                    Globals.readIntFromByteArray(code, offset + AUDIO_HEADER_SIZE + 4) == 0 ||
+                    !isAudioTable(offset)) {
+                continue;
+            }
+
+            if (hasShortData(offset)) {
+                if (soundFontTable < 0) {
+                    soundFontTable = offset;
+                }
+            } else if (numPlainTables < plainTables.length) {
+                plainTables[numPlainTables++] = offset;
+            }
+            offset += getAudioTableSize(offset) - 0x10;
+        }
+
+        // Match a sequence font table to the sequence table
+        int sequenceTable = -1;
+        int sampleBankTable = -1;
+        int sequenceFontTable = -1;
+        for (int i = 0; i < numPlainTables && sequenceFontTable < 0; i++) {
+            int numFonts = (soundFontTable < 0) ? 0x100 : readU16(soundFontTable);
+            sequenceFontTable = findSequenceFontTable(readU16(plainTables[i]), numFonts);
+            if (sequenceFontTable >= 0) {
+                sequenceTable = plainTables[i];
+                sampleBankTable = (numPlainTables > 1) ? plainTables[1 - i] : -1;
+            }
+        }
+
+        // Without a sequence font table, the sequence table is the larger one
+        if (sequenceTable < 0 && numPlainTables > 0) {
+            int larger = (numPlainTables > 1 && readU16(plainTables[1]) > readU16(plainTables[0])) ? 1 : 0;
+            sequenceTable = plainTables[larger];
+            sampleBankTable = (numPlainTables > 1) ? plainTables[1 - larger] : -1;
+        }
+
+        if (soundFontTable >= 0) {
+            addTable(Globals.CODE_TABLE_SOUND_FONT_NAME, soundFontTable, getAudioTableSize(soundFontTable));
+        }
+        if (sequenceTable >= 0) {
+            addTable(Globals.CODE_TABLE_SEQUENCE_NAME, sequenceTable, getAudioTableSize(sequenceTable));
+        }
+        if (sampleBankTable >= 0) {
+            addTable(Globals.CODE_TABLE_SAMPLE_BANK_NAME, sampleBankTable, getAudioTableSize(sampleBankTable));
+        }
+        if (sequenceFontTable >= 0) {
+            addTable(Globals.CODE_TABLE_SEQUENCE_FONT_NAME, sequenceFontTable,
+                    getSequenceFontTableSize(sequenceFontTable, readU16(sequenceTable)));
+        }
+    }
+
+    /**
+     * Gets the size of an audio table, including its header.
+     *
+     * @param offset The offset of the table.
+     * @return The size in bytes.
+     */
+    private int getAudioTableSize(int offset) {
+        return AUDIO_HEADER_SIZE + readU16(offset) * AUDIO_ENTRY_SIZE;
+    }
+
+    /**
+     * Validates an audio table.
+     * The first entry starts its binary, every entry has a known medium and cache policy,
+     * and entries with data are aligned and in order.
+     *
+     * @param offset The offset of the table header.
+     * @return True if the data is an audio table, otherwise false.
+     */
+    private boolean isAudioTable(int offset) {
+        int numEntries = readU16(offset);
+        if (numEntries == 0 || numEntries > AUDIO_MAX_ENTRIES || offset + getAudioTableSize(offset) > code.length) {
+            return false;
+        }
+
+        int lastRomAddr = 0;
+        for (int i = 0; i < numEntries; i++) {
+            int entry = offset + AUDIO_HEADER_SIZE + i * AUDIO_ENTRY_SIZE;
+            int romAddr = Globals.readIntFromByteArray(code, entry);
+            int size = Globals.readIntFromByteArray(code, entry + 4);
+
+            if ((code[entry + 8] & 0xFF) > AUDIO_MAX_MEDIUM || (code[entry + 9] & 0xFF) > AUDIO_MAX_CACHE_POLICY) {
+                return false;
+            }
+            if (size != 0) {
+                if ((romAddr & 0xF) != 0 || romAddr < lastRomAddr || size < 0) {
+                    return false;
+                }
+                lastRomAddr = romAddr;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if any entry of an audio table uses its short data fields, which only sound fonts do.
+     *
+     * @param offset The offset of the table header.
+     * @return True if any short data is set, otherwise false.
+     */
+    private boolean hasShortData(int offset) {
+        for (int i = 0; i < readU16(offset); i++) {
+            int entry = offset + AUDIO_HEADER_SIZE + i * AUDIO_ENTRY_SIZE;
+            if (Globals.readIntFromByteArray(code, entry + 0xA) != 0 || readU16(entry + 0xE) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the sequence font table, an array of offsets (one per sequence) to lists of font IDs.
+     * The first offset always points just past the array.
+     *
+     * @param numSequences The number of sequences.
+     * @param numFonts     The number of sound fonts.
+     * @return The offset of the table, or -1 if it was not found.
+     */
+    private int findSequenceFontTable(int numSequences, int numFonts) {
+        int arraySize = numSequences * 2;
+
+        for (int offset = 0; offset + arraySize <= code.length; offset += 0x10) {
+            if (readU16(offset) != arraySize) {
+                continue;
+            }
+
+            boolean valid = true;
+            for (int i = 0; i < numSequences && valid; i++) {
+                int listOffset = offset + readU16(offset + i * 2);
+                valid = listOffset >= offset + arraySize && listOffset < code.length &&
+                        (code[listOffset] & 0xFF) <= SEQUENCE_FONT_MAX_FONTS &&
+                        listOffset + 1 + (code[listOffset] & 0xFF) <= code.length;
+                for (int j = 0; valid && j < (code[listOffset] & 0xFF); j++) {
+                    valid = (code[listOffset + 1 + j] & 0xFF) < numFonts;
+                }
+            }
+            if (valid) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the size of the sequence font table, up to the end of its last font list, aligned to 0x10 bytes.
+     *
+     * @param offset       The offset of the table.
+     * @param numSequences The number of sequences.
+     * @return The size in bytes.
+     */
+    private int getSequenceFontTableSize(int offset, int numSequences) {
+        int end = numSequences * 2;
+        for (int i = 0; i < numSequences; i++) {
+            int listOffset = readU16(offset + i * 2);
+            end = Math.max(end, listOffset + 1 + (code[offset + listOffset] & 0xFF));
+        }
+        return Math.min(Globals.alignTo(end, 0x10), code.length - offset);
+    }
+
+    /**
+     * Finds the message tables. The NES table is followed by the German and French pointer tables on PAL
+     * versions, and then by the staff table.
+     */
+    private void findMessageTables() {
+        for (int offset = 0; offset + MESSAGE_MIN_ENTRIES * MESSAGE_ENTRY_SIZE <= code.length; offset += 4) {
+            // Quick check of the first entry before validating the whole table
+            if (code[offset + 3] != 0 || code[offset + 4] != Globals.TEXT_SEGMENT_NUM) {
+                continue;
+            }
+
+            int nesCount = getMessageTableCount(offset);
+            if (nesCount < MESSAGE_MIN_ENTRIES) {
+                continue;
+            }
+
+            int next = offset + nesCount * MESSAGE_ENTRY_SIZE;
+            int pointerTableSize = (nesCount - 1) * MESSAGE_POINTER_SIZE;
+            boolean pal = isPointerTable(next, nesCount - 1) && isPointerTable(next + pointerTableSize, nesCount - 1);
+            int staff = pal ? next + 2 * pointerTableSize : next;
+            int staffCount = getMessageTableCount(staff);
+            if (staffCount < 2) {
+                continue;
+            }
+
+            addTable(Globals.CODE_TABLE_TEXT_NES_NAME, offset, nesCount * MESSAGE_ENTRY_SIZE);
+            if (pal) {
+                addTable(Globals.CODE_TABLE_TEXT_GER_NAME, next, pointerTableSize);
+                addTable(Globals.CODE_TABLE_TEXT_FRA_NAME, next + pointerTableSize, pointerTableSize);
+            }
+            addTable(Globals.CODE_TABLE_TEXT_STAFF_NAME, staff, staffCount * MESSAGE_ENTRY_SIZE);
+            return;
+        }
+    }
+
+    /**
+     * Counts the entries of a message entry table, including its 0xFFFF terminator.
+     * Every entry before the terminator must have zero padding and point into the text segment.
+     *
+     * @param offset The offset of the table.
+     * @return The number of entries, or 0 if the data is not a message entry table.
+     */
+    private int getMessageTableCount(int offset) {
+        for (int count = 0; offset + (count + 1) * MESSAGE_ENTRY_SIZE <= code.length; count++) {
+            int entry = offset + count * MESSAGE_ENTRY_SIZE;
+            if (readU16(entry) == TEXT_ID_END) {
+                return count + 1;
+            }
+            if (code[entry + 3] != 0 || code[entry + 4] != Globals.TEXT_SEGMENT_NUM) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Validates a message pointer table. Every entry points into the text segment, in increasing order.
+     *
+     * @param offset The offset of the table.
+     * @param count  The number of entries.
+     * @return True if the data is a message pointer table, otherwise false.
+     */
+    private boolean isPointerTable(int offset, int count) {
+        if (count < 1 || offset + count * MESSAGE_POINTER_SIZE > code.length) {
+            return false;
+        }
+
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            int segmentAddr = Globals.readIntFromByteArray(code, offset + i * MESSAGE_POINTER_SIZE);
+            if ((segmentAddr >>> 24) != Globals.TEXT_SEGMENT_NUM || segmentAddr < last) {
+                return false;
+            }
+            last = segmentAddr;
+        }
+        return true;
+    }
+}
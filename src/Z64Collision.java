@@ -0,0 +1,824 @@
+/**
+ * Z64Collision.java
+ * Class representing a Zelda 64 collision header and the data it points to.
+ * Parses vertices, polygons, surface types, cameras and waterboxes into primitive arrays, and checks them for errors.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class Z64Collision {
+    // Offsets within the collision header
+    public static final int HEADER_SIZE = 0x2C;
+    public static final int HEADER_NUM_VERTICES = 0x0C;
+    public static final int HEADER_VERTICES = 0x10;
+    public static final int HEADER_NUM_POLYGONS = 0x14;
+    public static final int HEADER_POLYGONS = 0x18;
+    public static final int HEADER_SURFACE_TYPES = 0x1C;
+    public static final int HEADER_CAMERAS = 0x20;
+    public static final int HEADER_NUM_WATERBOXES = 0x24;
+    public static final int HEADER_WATERBOXES = 0x28;
+
+    public static final int VERTEX_SIZE = 6;
+    public static final int POLYGON_SIZE = 0x10;
+    public static final int SURFACE_TYPE_SIZE = 8;
+    public static final int CAMERA_SIZE = 8;
+    public static final int WATERBOX_SIZE = 0x10;
+
+    // The top 3 bits of a polygon's vertex indices are flags
+    public static final int VERTEX_INDEX_MASK = 0x1FFF;
+
+    private final byte[] data;
+    private final int headerOffset;
+    private final List<String> parseErrors = new ArrayList<>();
+
+    private int vertexOffset = -1;
+    private int polygonOffset = -1;
+    private int surfaceTypeOffset = -1;
+    private int cameraOffset = -1;
+    private int waterboxOffset = -1;
+
+    // x, y, z of each vertex
+    private short[] vertices = new short[0];
+    // Surface type of each polygon
+    private int[] polygonTypes = new int[0];
+    // Three vertex indices of each polygon, including their flags
+    private int[] polygonVertices = new int[0];
+    // Normal x, y, z and distance of each polygon
+    private short[] polygonNormals = new short[0];
+    // Two words of each surface type
+    private int[] surfaceTypes = new int[0];
+    // Setting, data count and data segment address of each camera
+    private int[] cameras = new int[0];
+    // x min, y surface, z min, x length, z length of each waterbox
+    private short[] waterboxes = new short[0];
+    // Properties word of each waterbox
+    private int[] waterboxProperties = new int[0];
+
+    /**
+     * Constructor for Z64Collision.
+     * Lists pointing outside the scene file are recorded as errors and left empty.
+     *
+     * @param data         The scene data.
+     * @param headerOffset Offset of the collision header within the scene.
+     */
+    public Z64Collision(byte[] data, int headerOffset) {
+        this.data = data;
+        this.headerOffset = headerOffset;
+
+        if (headerOffset < 0 || headerOffset + HEADER_SIZE > data.length) {
+            parseErrors.add("Collision header at 0x" + hex(headerOffset) + " is outside the scene");
+            return;
+        }
+
+        int numVertices = Globals.readShortFromByteArray(data, headerOffset + HEADER_NUM_VERTICES);
+        int numPolygons = Globals.readShortFromByteArray(data, headerOffset + HEADER_NUM_POLYGONS);
+        int numWaterboxes = Globals.readShortFromByteArray(data, headerOffset + HEADER_NUM_WATERBOXES);
+
+        vertexOffset = getListOffset(HEADER_VERTICES, "vertex", numVertices * VERTEX_SIZE);
+        polygonOffset = getListOffset(HEADER_POLYGONS, "polygon", numPolygons * POLYGON_SIZE);
+        surfaceTypeOffset = getListOffset(HEADER_SURFACE_TYPES, "surface type", 0);
+        cameraOffset = getListOffset(HEADER_CAMERAS, "camera", 0);
+        waterboxOffset = getListOffset(HEADER_WATERBOXES, "waterbox", numWaterboxes * WATERBOX_SIZE);
+
+        parseVertices(numVertices);
+        parsePolygons(numPolygons);
+        parseSurfaceTypes();
+        parseCameras();
+        parseWaterboxes(numWaterboxes);
+    }
+
+    /**
+     * Reads a list pointer from the collision header, and checks that the list fits within the scene.
+     *
+     * @param field Offset of the pointer within the header.
+     * @param name  Name of the list, used in error messages.
+     * @param size  Size of the list in bytes.
+     * @return The offset of the list, or -1 if it is NULL or invalid.
+     */
+    private int getListOffset(int field, String name, int size) {
+        int segmentAddr = Globals.readIntFromByteArray(data, headerOffset + field);
+        if (segmentAddr == 0) {
+            if (size > 0) {
+                parseErrors.add("Collision header at 0x" + hex(headerOffset) + " has a NULL " + name + " list");
+            }
+            return -1;
+        }
+
+        int offset = segmentAddr & 0xFFFFFF;
+        if ((segmentAddr >>> 24) != Globals.SCENE_SEGMENT_NUM || offset + size > data.length) {
+            parseErrors.add("Collision header at 0x" + hex(headerOffset) + " has an invalid " + name + " list at 0x" +
+                    Integer.toHexString(segmentAddr).toUpperCase());
+            return -1;
+        }
+        return offset;
+    }
+
+    /**
+     * Finds the largest number of entries a list without a count could hold, before it runs into other
+     * collision data or the end of the scene.
+     *
+     * @param offset    Offset of the list.
+     * @param entrySize Size of an entry in the list.
+     * @return The largest possible number of entries.
+     */
+    private int getMaxEntries(int offset, int entrySize) {
+        TreeSet<Integer> boundaries = new TreeSet<>();
+        boundaries.add(data.length);
+        boundaries.add(headerOffset);
+        boundaries.add(vertexOffset);
+        boundaries.add(polygonOffset);
+        boundaries.add(surfaceTypeOffset);
+        boundaries.add(cameraOffset);
+        boundaries.add(waterboxOffset);
+
+        Integer next = boundaries.higher(offset);
+        return (next - offset) / entrySize;
+    }
+
+    /**
+     * Parses the vertex list.
+     *
+     * @param count Number of vertices.
+     */
+    private void parseVertices(int count) {
+        if (vertexOffset < 0) {
+            return;
+        }
+
+        vertices = new short[count * 3];
+        for (int i = 0; i < count * 3; i++) {
+            vertices[i] = (short) Globals.readShortFromByteArray(data, vertexOffset + i * 2);
+        }
+    }
+
+    /**
+     * Parses the polygon list.
+     *
+     * @param count Number of polygons.
+     */
+    private void parsePolygons(int count) {
+        if (polygonOffset < 0) {
+            return;
+        }
+
+        polygonTypes = new int[count];
+        polygonVertices = new int[count * 3];
+        polygonNormals = new short[count * 4];
+        for (int i = 0; i < count; i++) {
+            int offset = polygonOffset + i * POLYGON_SIZE;
+            polygonTypes[i] = Globals.readShortFromByteArray(data, offset);
+            for (int j = 0; j < 3; j++) {
+                polygonVertices[i * 3 + j] = Globals.readShortFromByteArray(data, offset + 2 + j * 2);
+            }
+            for (int j = 0; j < 4; j++) {
+                polygonNormals[i * 4 + j] = (short) Globals.readShortFromByteArray(data, offset + 8 + j * 2);
+            }
+        }
+    }
+
+    /**
+     * Parses the surface type list.
+     * The list has no count, so it holds as many entries as the polygons use, up to the next piece of data.
+     */
+    private void parseSurfaceTypes() {
+        if (surfaceTypeOffset < 0) {
+            return;
+        }
+
+        int count = 0;
+        for (int type : polygonTypes) {
+            count = Math.max(count, type + 1);
+        }
+        count = Math.min(count, getMaxEntries(surfaceTypeOffset, SURFACE_TYPE_SIZE));
+
+        surfaceTypes = new int[count * 2];
+        for (int i = 0; i < count * 2; i++) {
+            surfaceTypes[i] = Globals.readIntFromByteArray(data, surfaceTypeOffset + i * 4);
+        }
+    }
+
+    /**
+     * Parses the camera list.
+     * The list has no count, so it holds as many entries as the surface types and waterboxes use,
+     * up to the next piece of data.
+     */
+    private void parseCameras() {
+        if (cameraOffset < 0) {
+            return;
+        }
+
+        int count = 0;
+        for (int i = 0; i < surfaceTypes.length; i += 2) {
+            count = Math.max(count, (surfaceTypes[i] & 0xFF) + 1);
+        }
+        if (waterboxOffset >= 0) {
+            int numWaterboxes = Globals.readShortFromByteArray(data, headerOffset + HEADER_NUM_WATERBOXES);
+            for (int i = 0; i < numWaterboxes; i++) {
+                count = Math.max(count, (data[waterboxOffset + i * WATERBOX_SIZE + 0xF] & 0xFF) + 1);
+            }
+        }
+        count = Math.min(count, getMaxEntries(cameraOffset, CAMERA_SIZE));
+
+        cameras = new int[count * 3];
+        for (int i = 0; i < count; i++) {
+            int offset = cameraOffset + i * CAMERA_SIZE;
+            cameras[i * 3] = Globals.readShortFromByteArray(data, offset);
+            cameras[i * 3 + 1] = (short) Globals.readShortFromByteArray(data, offset + 2);
+            cameras[i * 3 + 2] = Globals.readIntFromByteArray(data, offset + 4);
+        }
+    }
+
+    /**
+     * Parses the waterbox list.
+     *
+     * @param count Number of waterboxes.
+     */
+    private void parseWaterboxes(int count) {
+        if (waterboxOffset < 0) {
+            return;
+        }
+
+        waterboxes = new short[count * 5];
+        waterboxProperties = new int[count];
+        for (int i = 0; i < count; i++) {
+            int offset = waterboxOffset + i * WATERBOX_SIZE;
+            for (int j = 0; j < 5; j++) {
+                waterboxes[i * 5 + j] = (short) Globals.readShortFromByteArray(data, offset + j * 2);
+            }
+            waterboxProperties[i] = Globals.readIntFromByteArray(data, offset + 0xC);
+        }
+    }
+
+    /**
+     * Gets the offset of the collision header within the scene.
+     *
+     * @return The header offset.
+     */
+    public int getHeaderOffset() {
+        return headerOffset;
+    }
+
+    /**
+     * Gets the number of vertices.
+     *
+     * @return The number of vertices.
+     */
+    public int getNumVertices() {
+        return vertices.length / 3;
+    }
+
+    /**
+     * Gets the number of polygons.
+     *
+     * @return The number of polygons.
+     */
+    public int getNumPolygons() {
+        return polygonTypes.length;
+    }
+
+    /**
+     * Gets the number of surface types used by the polygons.
+     *
+     * @return The number of surface types.
+     */
+    public int getNumSurfaceTypes() {
+        return surfaceTypes.length / 2;
+    }
+
+    /**
+     * Gets the number of cameras used by the surface types and waterboxes.
+     *
+     * @return The number of cameras.
+     */
+    public int getNumCameras() {
+        return cameras.length / 3;
+    }
+
+    /**
+     * Gets the number of waterboxes.
+     *
+     * @return The number of waterboxes.
+     */
+    public int getNumWaterboxes() {
+        return waterboxProperties.length;
+    }
+
+    /**
+     * Gets a vertex index of a polygon, without its flags.
+     *
+     * @param polygon Index of the polygon.
+     * @param corner  Corner of the polygon, 0 to 2.
+     * @return The vertex index.
+     */
+    public int getPolygonVertex(int polygon, int corner) {
+        return polygonVertices[polygon * 3 + corner] & VERTEX_INDEX_MASK;
+    }
+
+    /**
+     * Checks if this collision shares its vertex or polygon list with another collision header.
+     *
+     * @param other The other collision header.
+     * @return True if either list is shared, otherwise false.
+     */
+    public boolean sharesListsWith(Z64Collision other) {
+        return (vertexOffset >= 0 && vertexOffset == other.vertexOffset) ||
+                (polygonOffset >= 0 && polygonOffset == other.polygonOffset);
+    }
+
+    /**
+     * Simplifies the collision mesh, and writes the new vertex and polygon lists and counts back to the scene.
+     * Duplicate vertices are welded, polygons with no area or that repeat another polygon are removed, and pairs of
+     * coplanar triangles with the same surface type are merged where they form a single larger triangle.
+     * The lists are written at their original offsets, so they only ever get shorter.
+     * Nothing is changed if the collision has errors.
+     */
+    public void simplify() {
+        List<String> errors = new ArrayList<>();
+        validate(errors, new ArrayList<>());
+        if (!errors.isEmpty() || vertexOffset < 0 || polygonOffset < 0) {
+            return;
+        }
+
+        int numPolygons = getNumPolygons();
+        boolean[] removed = new boolean[numPolygons];
+
+        weldVertices();
+
+        // Remove polygons with no area and exact repeats of another polygon
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < numPolygons; i++) {
+            if (isDegenerate(i, getNumVertices()) || !seen.add(polygonKey(i))) {
+                removed[i] = true;
+            }
+        }
+
+        mergeTriangles(removed);
+        compact(removed);
+        write();
+    }
+
+    /**
+     * Merges vertices with the same position, and points the polygons at the remaining copy.
+     */
+    private void weldVertices() {
+        Map<Long, Integer> positions = new HashMap<>();
+        int[] remap = new int[getNumVertices()];
+
+        for (int i = 0; i < remap.length; i++) {
+            long key = ((long) (vertices[i * 3] & 0xFFFF) << 32) | ((long) (vertices[i * 3 + 1] & 0xFFFF) << 16) |
+                    (vertices[i * 3 + 2] & 0xFFFF);
+            Integer first = positions.putIfAbsent(key, i);
+            remap[i] = (first != null) ? first : i;
+        }
+
+        for (int i = 0; i < polygonVertices.length; i++) {
+            int index = polygonVertices[i] & VERTEX_INDEX_MASK;
+            polygonVertices[i] = (polygonVertices[i] & ~VERTEX_INDEX_MASK) | remap[index];
+        }
+    }
+
+    /**
+     * Generates a key identifying a polygon by its surface type, flags, plane and set of vertices.
+     *
+     * @param index Index of the polygon.
+     * @return The key.
+     */
+    private String polygonKey(int index) {
+        int[] corners = {getPolygonVertex(index, 0), getPolygonVertex(index, 1), getPolygonVertex(index, 2)};
+        Arrays.sort(corners);
+
+        return polygonTypes[index] + "," + getPolygonFlags(index) + "," + corners[0] + "," + corners[1] + "," +
+                corners[2] + "," + polygonNormals[index * 4] + "," + polygonNormals[index * 4 + 1] + "," +
+                polygonNormals[index * 4 + 2] + "," + polygonNormals[index * 4 + 3];
+    }
+
+    /**
+     * Gets the flag bits stored above the vertex indices of a polygon.
+     *
+     * @param index Index of the polygon.
+     * @return The flags of all three corners, packed together.
+     */
+    private long getPolygonFlags(int index) {
+        return ((long) (polygonVertices[index * 3] & ~VERTEX_INDEX_MASK) << 32) |
+                ((long) (polygonVertices[index * 3 + 1] & ~VERTEX_INDEX_MASK) << 16) |
+                (polygonVertices[index * 3 + 2] & ~VERTEX_INDEX_MASK);
+    }
+
+    /**
+     * Merges pairs of triangles into one where possible, until no more pairs can be merged.
+     * Triangles (a, u, m) and (m, u, c) cover the same area as (a, u, c) when m lies on the line from a to c,
+     * as long as both are on the same plane with the same surface type and flags.
+     * If the merged polygons don't cover the same total area as before, every merge is undone.
+     *
+     * @param removed Which polygons have been removed, updated with the merged polygons.
+     */
+    private void mergeTriangles(boolean[] removed) {
+        int[] originalVertices = polygonVertices.clone();
+        boolean[] originalRemoved = removed.clone();
+        double originalArea = getTotalArea(removed);
+
+        // Map each edge to the polygons using it, kept up to date as polygons are merged
+        Map<Long, List<Integer>> edges = new HashMap<>();
+        for (int i = 0; i < removed.length; i++) {
+            if (!removed[i]) {
+                addEdges(i, edges);
+            }
+        }
+
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+
+            for (int p = 0; p < removed.length; p++) {
+                if (removed[p]) {
+                    continue;
+                }
+                for (int mCorner = 0; mCorner < 3 && !removed[p]; mCorner++) {
+                    if (mergeAtCorner(p, mCorner, edges, removed)) {
+                        merged = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (Math.abs(getTotalArea(removed) - originalArea) > originalArea * 1e-9) {
+            System.arraycopy(originalVertices, 0, polygonVertices, 0, polygonVertices.length);
+            System.arraycopy(originalRemoved, 0, removed, 0, removed.length);
+        }
+    }
+
+    /**
+     * Adds the edges of a polygon to the edge map.
+     *
+     * @param p     Index of the polygon.
+     * @param edges Map of each edge to the polygons using it.
+     */
+    private void addEdges(int p, Map<Long, List<Integer>> edges) {
+        for (int corner = 0; corner < 3; corner++) {
+            edges.computeIfAbsent(edgeKey(getPolygonVertex(p, corner), getPolygonVertex(p, (corner + 1) % 3)),
+                    k -> new ArrayList<>()).add(p);
+        }
+    }
+
+    /**
+     * Removes the edges of a polygon from the edge map.
+     *
+     * @param p     Index of the polygon.
+     * @param edges Map of each edge to the polygons using it.
+     */
+    private void removeEdges(int p, Map<Long, List<Integer>> edges) {
+        for (int corner = 0; corner < 3; corner++) {
+            List<Integer> users = edges.get(edgeKey(getPolygonVertex(p, corner), getPolygonVertex(p, (corner + 1) % 3)));
+            if (users != null) {
+                users.remove(Integer.valueOf(p));
+            }
+        }
+    }
+
+    /**
+     * Checks if a polygon has a vertex as one of its corners.
+     *
+     * @param p      Index of the polygon.
+     * @param vertex Index of the vertex.
+     * @return True if the polygon uses the vertex, otherwise false.
+     */
+    private boolean hasVertex(int p, int vertex) {
+        for (int corner = 0; corner < 3; corner++) {
+            if (getPolygonVertex(p, corner) == vertex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds up the area of every polygon that hasn't been removed.
+     *
+     * @param removed Which polygons have been removed.
+     * @return The total area.
+     */
+    private double getTotalArea(boolean[] removed) {
+        double area = 0;
+        for (int p = 0; p < removed.length; p++) {
+            if (removed[p]) {
+                continue;
+            }
+
+            int a = getPolygonVertex(p, 0);
+            int b = getPolygonVertex(p, 1);
+            int c = getPolygonVertex(p, 2);
+            long ux = vertices[b * 3] - vertices[a * 3];
+            long uy = vertices[b * 3 + 1] - vertices[a * 3 + 1];
+            long uz = vertices[b * 3 + 2] - vertices[a * 3 + 2];
+            long vx = vertices[c * 3] - vertices[a * 3];
+            long vy = vertices[c * 3 + 1] - vertices[a * 3 + 1];
+            long vz = vertices[c * 3 + 2] - vertices[a * 3 + 2];
+
+            long cx = uy * vz - uz * vy;
+            long cy = uz * vx - ux * vz;
+            long cz = ux * vy - uy * vx;
+            area += Math.sqrt((double) cx * cx + (double) cy * cy + (double) cz * cz) / 2;
+        }
+        return area;
+    }
+
+    /**
+     * Tries to merge a polygon with a neighbor, removing one of its corners.
+     *
+     * @param p       Index of the polygon.
+     * @param mCorner Corner of the polygon to remove.
+     * @param edges   Map of each edge to the polygons using it.
+     * @param removed Which polygons have been removed.
+     * @return True if the polygon was merged, otherwise false.
+     */
+    private boolean mergeAtCorner(int p, int mCorner, Map<Long, List<Integer>> edges, boolean[] removed) {
+        int m = getPolygonVertex(p, mCorner);
+
+        for (int side = 1; side <= 2; side++) {
+            int u = getPolygonVertex(p, (mCorner + side) % 3);
+            int a = getPolygonVertex(p, (mCorner + 3 - side) % 3);
+
+            for (Integer q : new ArrayList<>(edges.getOrDefault(edgeKey(u, m), new ArrayList<>()))) {
+                if (q == p || removed[q] || !hasVertex(q, u) || !hasVertex(q, m) ||
+                        polygonTypes[q] != polygonTypes[p] ||
+                        getPolygonFlags(q) != getPolygonFlags(p) || !samePlane(p, q)) {
+                    continue;
+                }
+
+                int c = -1;
+                for (int corner = 0; corner < 3; corner++) {
+                    int v = getPolygonVertex(q, corner);
+                    if (v != u && v != m) {
+                        c = v;
+                    }
+                }
+                if (c < 0 || c == a || !isBetween(a, m, c)) {
+                    continue;
+                }
+
+                // Replace m with c, which keeps the winding of p
+                removeEdges(p, edges);
+                removeEdges(q, edges);
+                int slot = p * 3 + mCorner;
+                polygonVertices[slot] = (polygonVertices[slot] & ~VERTEX_INDEX_MASK) | c;
+                removed[q] = true;
+                addEdges(p, edges);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Generates a key for an edge, the same for both directions.
+     *
+     * @param a Index of one vertex.
+     * @param b Index of the other vertex.
+     * @return The key.
+     */
+    private static long edgeKey(int a, int b) {
+        return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+    }
+
+    /**
+     * Checks if two polygons have the same normal and distance.
+     *
+     * @param p Index of one polygon.
+     * @param q Index of the other polygon.
+     * @return True if both polygons are on the same plane, facing the same way.
+     */
+    private boolean samePlane(int p, int q) {
+        for (int i = 0; i < 4; i++) {
+            if (polygonNormals[p * 4 + i] != polygonNormals[q * 4 + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a vertex lies on the line between two others, strictly between them.
+     *
+     * @param a Index of the first end of the line.
+     * @param m Index of the vertex to check.
+     * @param c Index of the other end of the line.
+     * @return True if m is on the line from a to c, otherwise false.
+     */
+    private boolean isBetween(int a, int m, int c) {
+        long ux = vertices[m * 3] - vertices[a * 3];
+        long uy = vertices[m * 3 + 1] - vertices[a * 3 + 1];
+        long uz = vertices[m * 3 + 2] - vertices[a * 3 + 2];
+        long vx = vertices[c * 3] - vertices[m * 3];
+        long vy = vertices[c * 3 + 1] - vertices[m * 3 + 1];
+        long vz = vertices[c * 3 + 2] - vertices[m * 3 + 2];
+
+        boolean collinear = uy * vz - uz * vy == 0 && uz * vx - ux * vz == 0 && ux * vy - uy * vx == 0;
+        return collinear && ux * vx + uy * vy + uz * vz > 0;
+    }
+
+    /**
+     * Drops removed polygons and vertices no polygon uses from the arrays.
+     *
+     * @param removed Which polygons have been removed.
+     */
+    private void compact(boolean[] removed) {
+        int numKept = 0;
+        for (boolean r : removed) {
+            numKept += r ? 0 : 1;
+        }
+
+        int[] newTypes = new int[numKept];
+        int[] newVertices = new int[numKept * 3];
+        short[] newNormals = new short[numKept * 4];
+        int next = 0;
+        for (int i = 0; i < removed.length; i++) {
+            if (removed[i]) {
+                continue;
+            }
+            newTypes[next] = polygonTypes[i];
+            System.arraycopy(polygonVertices, i * 3, newVertices, next * 3, 3);
+            System.arraycopy(polygonNormals, i * 4, newNormals, next * 4, 4);
+            next++;
+        }
+        polygonTypes = newTypes;
+        polygonVertices = newVertices;
+        polygonNormals = newNormals;
+
+        // Keep the used vertices in their original order
+        int[] remap = new int[getNumVertices()];
+        Arrays.fill(remap, -1);
+        for (int i = 0; i < polygonVertices.length; i++) {
+            remap[polygonVertices[i] & VERTEX_INDEX_MASK] = 0;
+        }
+        int numUsed = 0;
+        for (int i = 0; i < remap.length; i++) {
+            if (remap[i] == 0) {
+                remap[i] = numUsed++;
+            }
+        }
+
+        short[] newPositions = new short[numUsed * 3];
+        for (int i = 0; i < remap.length; i++) {
+            if (remap[i] >= 0) {
+                System.arraycopy(vertices, i * 3, newPositions, remap[i] * 3, 3);
+            }
+        }
+        vertices = newPositions;
+
+        for (int i = 0; i < polygonVertices.length; i++) {
+            int index = polygonVertices[i] & VERTEX_INDEX_MASK;
+            polygonVertices[i] = (polygonVertices[i] & ~VERTEX_INDEX_MASK) | remap[index];
+        }
+    }
+
+    /**
+     * Writes the vertex and polygon lists and their counts back to the scene.
+     */
+    private void write() {
+        writeShort(headerOffset + HEADER_NUM_VERTICES, getNumVertices());
+        writeShort(headerOffset + HEADER_NUM_POLYGONS, getNumPolygons());
+
+        for (int i = 0; i < vertices.length; i++) {
+            writeShort(vertexOffset + i * 2, vertices[i]);
+        }
+
+        for (int i = 0; i < getNumPolygons(); i++) {
+            int offset = polygonOffset + i * POLYGON_SIZE;
+            writeShort(offset, polygonTypes[i]);
+            for (int j = 0; j < 3; j++) {
+                writeShort(offset + 2 + j * 2, polygonVertices[i * 3 + j]);
+            }
+            for (int j = 0; j < 4; j++) {
+                writeShort(offset + 8 + j * 2, polygonNormals[i * 4 + j]);
+            }
+        }
+    }
+
+    /**
+     * Writes a 2-byte value to the scene.
+     *
+     * @param offset Offset within the scene.
+     * @param value  The value to write.
+     */
+    private void writeShort(int offset, int value) {
+        data[offset] = (byte) ((value >> 8) & 0xFF);
+        data[offset + 1] = (byte) (value & 0xFF);
+    }
+
+    /**
+     * Checks the collision for problems, with the polygons checked in parallel.
+     * Errors are problems that can crash the game, warnings are problems that only waste time.
+     *
+     * @param errors   List that errors are added to.
+     * @param warnings List that warnings are added to.
+     */
+    public void validate(List<String> errors, List<String> warnings) {
+        errors.addAll(parseErrors);
+
+        int numVertices = getNumVertices();
+        int numSurfaceTypes = getNumSurfaceTypes();
+        int numCameras = getNumCameras();
+
+        errors.addAll(IntStream.range(0, getNumPolygons()).parallel()
+                .mapToObj(i -> validatePolygon(i, numVertices, numSurfaceTypes))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+
+        long numDegenerate = IntStream.range(0, getNumPolygons()).parallel()
+                .filter(i -> isDegenerate(i, numVertices))
+                .count();
+        if (numDegenerate > 0) {
+            warnings.add("Collision header at 0x" + hex(headerOffset) + " has " + numDegenerate +
+                    " polygon(s) with no area");
+        }
+
+        // The surface type list can't hold every type the polygons use
+        if (polygonTypes.length > 0 && numSurfaceTypes == 0) {
+            errors.add("Collision header at 0x" + hex(headerOffset) + " has polygons but no surface types");
+        }
+
+        if (cameraOffset >= 0) {
+            for (int i = 0; i < numSurfaceTypes; i++) {
+                int camera = surfaceTypes[i * 2] & 0xFF;
+                if (camera >= numCameras) {
+                    errors.add("Surface type " + i + " at 0x" + hex(surfaceTypeOffset + i * SURFACE_TYPE_SIZE) +
+                            " uses missing camera " + camera);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks a single polygon.
+     *
+     * @param index           Index of the polygon.
+     * @param numVertices     Number of vertices.
+     * @param numSurfaceTypes Number of surface types in the list.
+     * @return A description of the problem, or null if the polygon is valid.
+     */
+    private String validatePolygon(int index, int numVertices, int numSurfaceTypes) {
+        String where = "Polygon " + index + " at 0x" + hex(polygonOffset + index * POLYGON_SIZE);
+        int a = getPolygonVertex(index, 0);
+        int b = getPolygonVertex(index, 1);
+        int c = getPolygonVertex(index, 2);
+
+        if (a >= numVertices || b >= numVertices || c >= numVertices) {
+            return where + " uses a vertex past the end of the " + numVertices + " vertex list";
+        }
+        if (polygonTypes[index] >= numSurfaceTypes && numSurfaceTypes > 0) {
+            return where + " uses surface type " + polygonTypes[index] + ", which is past the end of the list";
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a polygon has no area, because two of its corners are the same or all three lie on a line.
+     *
+     * @param index       Index of the polygon.
+     * @param numVertices Number of vertices.
+     * @return True if the polygon has no area, otherwise false.
+     */
+    private boolean isDegenerate(int index, int numVertices) {
+        int a = getPolygonVertex(index, 0);
+        int b = getPolygonVertex(index, 1);
+        int c = getPolygonVertex(index, 2);
+
+        // Polygons with invalid vertices are reported as errors instead
+        if (a >= numVertices || b >= numVertices || c >= numVertices) {
+            return false;
+        }
+        if (a == b || b == c || a == c) {
+            return true;
+        }
+
+        long ux = vertices[b * 3] - vertices[a * 3];
+        long uy = vertices[b * 3 + 1] - vertices[a * 3 + 1];
+        long uz = vertices[b * 3 + 2] - vertices[a * 3 + 2];
+        long vx = vertices[c * 3] - vertices[a * 3];
+        long vy = vertices[c * 3 + 1] - vertices[a * 3 + 1];
+        long vz = vertices[c * 3 + 2] - vertices[a * 3 + 2];
+
+        return uy * vz - uz * vy == 0 && uz * vx - ux * vz == 0 && ux * vy - uy * vx == 0;
+    }
+
+    /**
+     * Formats an offset as uppercase hex.
+     *
+     * @param value The offset.
+     * @return The offset in hex, without a prefix.
+     */
+    private static String hex(int value) {
+        return Integer.toHexString(value).toUpperCase();
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Z64DisplayListOptimizer.java
+ * Removes redundant commands from the F3DEX2 display lists of a file.
+ * Tracks the RSP and RDP state set by each display list, and drops commands that set state to the value it
+ * already has. Each display list is compacted in place, so it still starts at the same offset.
+ */
+
+import java.util.BitSet;
+import java.util.TreeSet;
+
+public class Z64DisplayListOptimizer {
+    // F3DEX2 opcodes
+    private static final int G_DL = 0xDE;
+    private static final int G_ENDDL = 0xDF;
+    private static final int G_GEOMETRYMODE = 0xD9;
+    private static final int G_SETOTHERMODE_L = 0xE2;
+    private static final int G_SETOTHERMODE_H = 0xE3;
+    private static final int G_RDPSETOTHERMODE = 0xEF;
+    private static final int G_RDPLOADSYNC = 0xE6;
+    private static final int G_RDPPIPESYNC = 0xE7;
+    private static final int G_RDPTILESYNC = 0xE8;
+    private static final int G_RDPFULLSYNC = 0xE9;
+
+    // Commands that set a single piece of state, so a repeat of the same command does nothing
+    private static final BitSet REPEATABLE_OPCODES = new BitSet(256);
+    // Commands that don't change any of the tracked state
+    private static final BitSet PASSIVE_OPCODES = new BitSet(256);
+
+    static {
+        // G_TEXTURE, G_SETFILLCOLOR, G_SETFOGCOLOR, G_SETBLENDCOLOR, G_SETPRIMCOLOR, G_SETENVCOLOR,
+        // G_SETCOMBINE, G_SETTIMG
+        final int[] repeatable = {0xD7, 0xF7, 0xF8, 0xF9, 0xFA, 0xFB, 0xFC, 0xFD};
+        // G_SPNOOP, G_VTX, G_CULLDL, G_TRI1, G_TRI2, G_QUAD, G_POPMTX, G_MTX, G_SETSCISSOR, G_LOADTLUT,
+        // G_SETTILESIZE, G_LOADBLOCK, G_LOADTILE, G_SETTILE
+        final int[] passive = {0x00, 0x01, 0x03, 0x05, 0x06, 0x07, 0xD8, 0xDA, 0xED, 0xF0, 0xF2, 0xF3, 0xF4, 0xF5};
+
+        for (int op : repeatable) {
+            REPEATABLE_OPCODES.set(op);
+        }
+        for (int op : passive) {
+            PASSIVE_OPCODES.set(op);
+        }
+    }
+
+    private final byte[] data;
+    private final TreeSet<Integer> displayListStarts = new TreeSet<>();
+
+    // Last value set by each repeatable command
+    private final long[] lastCommand = new long[256];
+    private final BitSet knownCommands = new BitSet(256);
+    // Geometry mode and other mode bits, with a mask of which bits are known
+    private int geometryMode;
+    private int geometryModeKnown;
+    private final int[] otherMode = new int[2];
+    private final int[] otherModeKnown = new int[2];
+    // Last command kept, used to drop repeated syncs
+    private long lastKept;
+
+    /**
+     * Constructor for Z64DisplayListOptimizer.
+     *
+     * @param data    The file data, which is modified in place.
+     * @param scanner The scanner that found the file's display lists.
+     */
+    public Z64DisplayListOptimizer(byte[] data, Z64DisplayListScanner scanner) {
+        this.data = data;
+        for (Integer offset : scanner.getDisplayLists()) {
+            displayListStarts.add(offset);
+        }
+    }
+
+    /**
+     * Optimizes every display list found by the scanner.
+     * A display list is left untouched if another display list starts inside it, since moving its commands
+     * would break the other reference.
+     *
+     * @return The number of commands removed.
+     */
+    public int optimize() {
+        int removed = 0;
+        for (Integer start : displayListStarts) {
+            removed += optimizeDisplayList(start);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the redundant commands of a single display list, and moves its remaining commands up.
+     * The commands after the new end are filled with G_ENDDL.
+     *
+     * @param start Offset of the display list.
+     * @return The number of commands removed.
+     */
+    private int optimizeDisplayList(int start) {
+        int end = findEnd(start);
+        if (end < 0) {
+            return 0;
+        }
+
+        // Don't move commands that another reference points to
+        Integer next = displayListStarts.higher(start);
+        if (next != null && next <= end) {
+            return 0;
+        }
+
+        resetState();
+        lastKept = -1;
+
+        int writeOffset = start;
+        for (int offset = start; offset <= end; offset += Z64DisplayListScanner.CMD_SIZE) {
+            int w0 = Globals.readIntFromByteArray(data, offset);
+            int w1 = Globals.readIntFromByteArray(data, offset + 4);
+
+            if (offset != end && isRedundant(w0, w1)) {
+                continue;
+            }
+
+            if (writeOffset != offset) {
+                System.arraycopy(data, offset, data, writeOffset, Z64DisplayListScanner.CMD_SIZE);
+            }
+            writeOffset += Z64DisplayListScanner.CMD_SIZE;
+            lastKept = ((long) w0 << 32) | (w1 & 0xFFFFFFFFL);
+        }
+
+        int removed = (end + Z64DisplayListScanner.CMD_SIZE - writeOffset) / Z64DisplayListScanner.CMD_SIZE;
+        for (int offset = writeOffset; offset <= end; offset += Z64DisplayListScanner.CMD_SIZE) {
+            Globals.writeIntToByteArray(data, offset, G_ENDDL << 24);
+            Globals.writeIntToByteArray(data, offset + 4, 0);
+        }
+        return removed;
+    }
+
+    /**
+     * Finds the last command of a display list, either a G_ENDDL or a branching G_DL.
+     *
+     * @param start Offset of the display list.
+     * @return The offset of the last command, or -1 if the display list runs off the end of the file.
+     */
+    private int findEnd(int start) {
+        for (int offset = start; offset + Z64DisplayListScanner.CMD_SIZE <= data.length;
+             offset += Z64DisplayListScanner.CMD_SIZE) {
+            int op = data[offset] & 0xFF;
+            if (op == G_ENDDL || (op == G_DL && data[offset + 1] != 0)) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Forgets all tracked state, so no following command is treated as redundant.
+     */
+    private void resetState() {
+        knownCommands.clear();
+        geometryModeKnown = 0;
+        otherModeKnown[0] = 0;
+        otherModeKnown[1] = 0;
+    }
+
+    /**
+     * Checks if a command sets state to the value it already has, and updates the tracked state.
+     *
+     * @param w0 First word of the command.
+     * @param w1 Second word of the command.
+     * @return True if the command can be removed, otherwise false.
+     */
+    private boolean isRedundant(int w0, int w1) {
+        int op = w0 >>> 24;
+        long cmd = ((long) w0 << 32) | (w1 & 0xFFFFFFFFL);
+
+        if (REPEATABLE_OPCODES.get(op)) {
+            boolean redundant = knownCommands.get(op) && lastCommand[op] == cmd;
+            lastCommand[op] = cmd;
+            knownCommands.set(op);
+            return redundant;
+        }
+
+        switch (op) {
+            case G_GEOMETRYMODE: {
+                int clearBits = ~w0 & 0xFFFFFF;
+                int affected = clearBits | w1;
+                boolean redundant = (geometryModeKnown & affected) == affected && ((geometryMode ^ w1) & affected) == 0;
+                geometryMode = (geometryMode & ~affected) | w1;
+                geometryModeKnown |= affected;
+                return redundant;
+            }
+            case G_SETOTHERMODE_L:
+            case G_SETOTHERMODE_H: {
+                int index = op - G_SETOTHERMODE_L;
+                int len = (w0 & 0xFF) + 1;
+                int shift = 32 - ((w0 >> 8) & 0xFF) - len;
+                if (shift < 0) {
+                    resetState();
+                    return false;
+                }
+                int mask = (len >= 32) ? -1 : (((1 << len) - 1) << shift);
+                boolean redundant = (otherModeKnown[index] & mask) == mask && ((otherMode[index] ^ w1) & mask) == 0;
+                otherMode[index] = (otherMode[index] & ~mask) | (w1 & mask);
+                otherModeKnown[index] |= mask;
+                return redundant;
+            }
+            case G_RDPSETOTHERMODE: {
+                boolean redundant = (otherModeKnown[1] & 0xFFFFFF) == 0xFFFFFF &&
+                        ((otherMode[1] ^ w0) & 0xFFFFFF) == 0 &&
+                        otherModeKnown[0] == -1 && otherMode[0] == w1;
+                otherMode[1] = w0 & 0xFFFFFF;
+                otherModeKnown[1] = 0xFFFFFF;
+                otherMode[0] = w1;
+                otherModeKnown[0] = -1;
+                return redundant;
+            }
+            case G_RDPLOADSYNC:
+            case G_RDPPIPESYNC:
+            case G_RDPTILESYNC:
+            case G_RDPFULLSYNC:
+                // A sync directly after the same sync waits for nothing
+                return lastKept == cmd;
+            case G_DL:
+                // The called display list may change any state
+                resetState();
+                return false;
+            default:
+                if (!PASSIVE_OPCODES.get(op)) {
+                    resetState();
+                }
+                return false;
+        }
+    }
+}
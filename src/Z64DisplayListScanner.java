@@ -0,0 +1,617 @@
+/**
+ * Z64DisplayListScanner.java
+ * Walks the F3DEX2 display lists of a file.
+ * Finds every display list, texture and vertex array they reference, and generates XML nodes for them.
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class Z64DisplayListScanner {
+    // F3DEX2 opcodes
+    public static final int G_VTX = 0x01;
+    public static final int G_BRANCH_Z = 0x04;
+    public static final int G_DL = 0xDE;
+    public static final int G_ENDDL = 0xDF;
+    public static final int G_RDPHALF_1 = 0xE1;
+    public static final int G_LOADTLUT = 0xF0;
+    public static final int G_SETTILESIZE = 0xF2;
+    public static final int G_LOADBLOCK = 0xF3;
+    public static final int G_LOADTILE = 0xF4;
+    public static final int G_SETTILE = 0xF5;
+    public static final int G_SETTIMG = 0xFD;
+
+    public static final int G_TX_LOADTILE = 7;
+    public static final int G_IM_FMT_CI = 2;
+
+    public static final int CMD_SIZE = 8;
+    public static final int VTX_SIZE = 0x10;
+
+    // Opcodes that can appear in a display list, used to find display lists in files without headers
+    private static final BitSet KNOWN_OPCODES = new BitSet(256);
+
+    static {
+        final int[] opcodes = {
+                0x01, 0x03, 0x04, 0x05, 0x06, 0x07, 0xD7, 0xD8, 0xD9, 0xDA, 0xDB, 0xDC, 0xDE, 0xE1, 0xE2, 0xE3,
+                0xE4, 0xE6, 0xE7, 0xE8, 0xE9, 0xED, 0xEE, 0xEF, 0xF0, 0xF2, 0xF3, 0xF4, 0xF5, 0xF6, 0xF7, 0xF8,
+                0xF9, 0xFA, 0xFB, 0xFC, 0xFD, 0xFE, 0xFF,
+        };
+        for (int op : opcodes) {
+            KNOWN_OPCODES.set(op);
+        }
+    }
+
+    /**
+     * Class representing a texture or palette referenced by a display list.
+     */
+    public static class Texture {
+        private final int offset;
+        private final int fmt;
+        private final int siz;
+        private final int width;
+        private final int height;
+        private final int tlutOffset;
+        private final boolean palette;
+
+        /**
+         * Constructs a Texture.
+         *
+         * @param offset     Offset of the texture data within its file.
+         * @param fmt        Image format (G_IM_FMT_*).
+         * @param siz        Texel size (G_IM_SIZ_*).
+         * @param width      Width in texels.
+         * @param height     Height in texels.
+         * @param tlutOffset Offset of the palette within the file, or -1 if there is none.
+         */
+        public Texture(int offset, int fmt, int siz, int width, int height, int tlutOffset) {
+            this(offset, fmt, siz, width, height, tlutOffset, false);
+        }
+
+        /**
+         * Constructs a Texture or palette.
+         *
+         * @param offset     Offset of the texture data within its file.
+         * @param fmt        Image format (G_IM_FMT_*).
+         * @param siz        Texel size (G_IM_SIZ_*).
+         * @param width      Width in texels.
+         * @param height     Height in texels.
+         * @param tlutOffset Offset of the palette within the file, or -1 if there is none.
+         * @param palette    True if this is a palette loaded by G_LOADTLUT.
+         */
+        public Texture(int offset, int fmt, int siz, int width, int height, int tlutOffset, boolean palette) {
+            this.offset = offset;
+            this.fmt = fmt;
+            this.siz = siz;
+            this.width = width;
+            this.height = height;
+            this.tlutOffset = tlutOffset;
+            this.palette = palette;
+        }
+
+        /**
+         * Gets the offset of the texture data within its file.
+         *
+         * @return The offset in bytes.
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * Gets the image format of the texture.
+         *
+         * @return The image format (G_IM_FMT_*).
+         */
+        public int getFmt() {
+            return fmt;
+        }
+
+        /**
+         * Gets the texel size of the texture.
+         *
+         * @return The texel size (G_IM_SIZ_*).
+         */
+        public int getSiz() {
+            return siz;
+        }
+
+        /**
+         * Gets the width of the texture.
+         *
+         * @return The width in texels.
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * Gets the height of the texture.
+         *
+         * @return The height in texels.
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Gets the offset of the texture's palette within its file.
+         *
+         * @return The palette offset, or -1 if there is none.
+         */
+        public int getTlutOffset() {
+            return tlutOffset;
+        }
+
+        /**
+         * Checks if this is a palette rather than a texture.
+         *
+         * @return True if the data was loaded by G_LOADTLUT, otherwise false.
+         */
+        public boolean isPalette() {
+            return palette;
+        }
+
+        /**
+         * Gets the size of the texture data in bytes.
+         *
+         * @return The size in bytes.
+         */
+        public int getSize() {
+            return (width * height * (4 << siz)) / 8;
+        }
+
+        /**
+         * Gets the format name used by ZAPD, such as "rgba16" or "ci8".
+         *
+         * @return The format name.
+         */
+        public String getFormatName() {
+            final String[] fmtNames = {"rgba", "yuv", "ci", "ia", "i"};
+            String fmtName = (fmt < fmtNames.length) ? fmtNames[fmt] : "rgba";
+            return fmtName + (4 << siz);
+        }
+    }
+
+    private final byte[] data;
+    private final int segmentNum;
+    private final BitSet visited = new BitSet();
+    private final ArrayDeque<Integer> worklist = new ArrayDeque<>();
+    private final TreeSet<Integer> displayLists = new TreeSet<>();
+    private final TreeMap<Integer, Texture> textures = new TreeMap<>();
+    private final TreeMap<Integer, Integer> vertices = new TreeMap<>();
+    private final TreeMap<Integer, ArrayList<Integer>> textureRefs = new TreeMap<>();
+    private final TreeMap<Integer, ArrayList<Integer>> textureLoads = new TreeMap<>();
+    private final ArrayList<Integer> externalDisplayLists = new ArrayList<>();
+    private final ArrayList<Integer> externalVertices = new ArrayList<>();
+    private final ArrayList<Texture> externalTextures = new ArrayList<>();
+
+    /**
+     * Constructor for Z64DisplayListScanner.
+     *
+     * @param data       The file data.
+     * @param segmentNum The segment the file is loaded into.
+     */
+    public Z64DisplayListScanner(byte[] data, int segmentNum) {
+        this.data = data;
+        this.segmentNum = segmentNum;
+    }
+
+    /**
+     * Scans the display list at a segment address, and every display list it calls.
+     * Addresses in other segments are recorded as external references instead.
+     *
+     * @param segmentAddr Segment address of the display list, NULL is ignored.
+     */
+    public void scan(int segmentAddr) {
+        if (segmentAddr == 0) {
+            return;
+        }
+        if (!isLocal(segmentAddr)) {
+            if (isKnownSegment(segmentAddr)) {
+                externalDisplayLists.add(segmentAddr);
+            }
+            return;
+        }
+
+        worklist.add(segmentAddr & 0xFFFFFF);
+        while (!worklist.isEmpty()) {
+            walk(worklist.poll());
+        }
+    }
+
+    /**
+     * Records a vertex array referenced from another file.
+     *
+     * @param offset Offset of the vertex array within this file.
+     * @param count  Number of vertices.
+     */
+    public void addVertices(int offset, int count) {
+        if (offset + count * VTX_SIZE <= data.length) {
+            vertices.merge(offset, count, Math::max);
+        }
+    }
+
+    /**
+     * Records a texture referenced from another file.
+     *
+     * @param texture The texture, with offsets within this file.
+     */
+    public void addTexture(Texture texture) {
+        if (texture.getOffset() + texture.getSize() <= data.length) {
+            textures.putIfAbsent(texture.getOffset(), texture);
+        }
+    }
+
+    /**
+     * Finds display lists in a file without any headers pointing to them, such as an object file.
+     * Each G_ENDDL is followed back through valid commands to find the start of its display list.
+     */
+    public void scanForDisplayLists() {
+        for (int offset = 0; offset + CMD_SIZE <= data.length; offset += CMD_SIZE) {
+            if ((data[offset] & 0xFF) != G_ENDDL || Globals.readIntFromByteArray(data, offset + 4) != 0) {
+                continue;
+            }
+
+            int start = offset;
+            while (start >= CMD_SIZE && isPlausibleCommand(start - CMD_SIZE)) {
+                start -= CMD_SIZE;
+            }
+
+            // A lone G_ENDDL is more likely to be data
+            if (start != offset) {
+                scan((segmentNum << 24) | start);
+            }
+        }
+    }
+
+    /**
+     * Checks if the bytes at an offset look like a display list command.
+     *
+     * @param offset Offset within the file.
+     * @return True if the bytes could be a command, otherwise false.
+     */
+    private boolean isPlausibleCommand(int offset) {
+        int op = data[offset] & 0xFF;
+
+        if (!KNOWN_OPCODES.get(op)) {
+            return false;
+        }
+
+        // Commands with an address must point to somewhere valid
+        if (op == G_VTX || op == G_DL || op == G_SETTIMG) {
+            int segmentAddr = Globals.readIntFromByteArray(data, offset + 4);
+            int segment = segmentAddr >>> 24;
+            if (segment == segmentNum) {
+                return (segmentAddr & 0xFFFFFF) < data.length;
+            }
+            return segment >= 0x08 && segment <= 0x0F;
+        }
+        return true;
+    }
+
+    /**
+     * Walks a single display list, queueing every display list it calls.
+     *
+     * @param start Offset of the display list within the file.
+     */
+    private void walk(int start) {
+        displayLists.add(start);
+        if (visited.get(start / CMD_SIZE)) {
+            return;
+        }
+
+        // Texture state while walking
+        int timgAddr = 0;
+        int timgCmd = -1;
+        int timgSiz = 0;
+        int pendingTexture = 0;
+        int pendingTextureCmd = -1;
+        int tlutAddr = 0;
+        int rdpHalf = 0;
+        int[] tileFmt = new int[8];
+        int[] tileSiz = new int[8];
+
+        for (int offset = start; offset + CMD_SIZE <= data.length; offset += CMD_SIZE) {
+            if (visited.get(offset / CMD_SIZE)) {
+                return;
+            }
+            visited.set(offset / CMD_SIZE);
+
+            int w0 = Globals.readIntFromByteArray(data, offset);
+            int w1 = Globals.readIntFromByteArray(data, offset + 4);
+            int op = w0 >>> 24;
+
+            switch (op) {
+                case G_ENDDL:
+                    return;
+                case G_DL:
+                    queueDisplayList(w1);
+                    // A branch never returns
+                    if (((w0 >> 16) & 0xFF) != 0) {
+                        return;
+                    }
+                    break;
+                case G_RDPHALF_1:
+                    rdpHalf = w1;
+                    break;
+                case G_BRANCH_Z:
+                    queueDisplayList(rdpHalf);
+                    break;
+                case G_VTX:
+                    recordVertices(w1, (w0 >> 12) & 0xFF);
+                    break;
+                case G_SETTIMG:
+                    timgAddr = w1;
+                    timgCmd = offset;
+                    timgSiz = (w0 >> 19) & 3;
+                    break;
+                case G_LOADTLUT:
+                    tlutAddr = timgAddr;
+                    recordTexture(new Texture(tlutAddr & 0xFFFFFF, 0, 2, ((w1 >> 14) & 0x3FF) + 1, 1, -1, true),
+                            tlutAddr, timgCmd);
+                    break;
+                case G_LOADBLOCK:
+                case G_LOADTILE:
+                    pendingTexture = timgAddr;
+                    pendingTextureCmd = timgCmd;
+                    recordTextureLoad(timgAddr, offset);
+                    break;
+                case G_SETTILE: {
+                    int tile = (w1 >> 24) & 7;
+                    tileFmt[tile] = (w0 >> 21) & 7;
+                    tileSiz[tile] = (w0 >> 19) & 3;
+                    break;
+                }
+                case G_SETTILESIZE: {
+                    int tile = (w1 >> 24) & 7;
+                    if (tile == G_TX_LOADTILE || pendingTexture == 0) {
+                        break;
+                    }
+                    int width = ((((w1 >> 12) & 0xFFF) - ((w0 >> 12) & 0xFFF)) >> 2) + 1;
+                    int height = (((w1 & 0xFFF) - (w0 & 0xFFF)) >> 2) + 1;
+                    int tlutOffset = (tileFmt[tile] == G_IM_FMT_CI && isLocal(tlutAddr)) ? (tlutAddr & 0xFFFFFF) : -1;
+                    if (width > 0 && height > 0) {
+                        recordTexture(new Texture(pendingTexture & 0xFFFFFF, tileFmt[tile], tileSiz[tile], width, height,
+                                tlutOffset), pendingTexture, pendingTextureCmd);
+                    }
+                    pendingTexture = 0;
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Queues a display list to be walked, or records it as an external reference.
+     *
+     * @param segmentAddr Segment address of the display list.
+     */
+    private void queueDisplayList(int segmentAddr) {
+        if (isLocal(segmentAddr)) {
+            worklist.add(segmentAddr & 0xFFFFFF);
+        } else if (isKnownSegment(segmentAddr)) {
+            externalDisplayLists.add(segmentAddr);
+        }
+    }
+
+    /**
+     * Records a vertex array loaded by G_VTX.
+     *
+     * @param segmentAddr Segment address of the vertices.
+     * @param count       Number of vertices loaded.
+     */
+    private void recordVertices(int segmentAddr, int count) {
+        if (isLocal(segmentAddr)) {
+            addVertices(segmentAddr & 0xFFFFFF, count);
+        } else if (isKnownSegment(segmentAddr)) {
+            externalVertices.add(segmentAddr);
+            externalVertices.add(count);
+        }
+    }
+
+    /**
+     * Records a texture or palette.
+     *
+     * @param texture     The texture, with its offset within its own file.
+     * @param segmentAddr Segment address of the texture.
+     * @param cmdOffset   Offset of the G_SETTIMG command that loaded the texture.
+     */
+    private void recordTexture(Texture texture, int segmentAddr, int cmdOffset) {
+        if (isLocal(segmentAddr)) {
+            addTexture(texture);
+            ArrayList<Integer> refs = textureRefs.computeIfAbsent(texture.getOffset(), k -> new ArrayList<>());
+            if (!refs.contains(cmdOffset)) {
+                refs.add(cmdOffset);
+            }
+        } else if (isKnownSegment(segmentAddr)) {
+            externalTextures.add(new Texture(segmentAddr, texture.getFmt(), texture.getSiz(), texture.getWidth(),
+                    texture.getHeight(), texture.getTlutOffset(), texture.isPalette()));
+        }
+    }
+
+    /**
+     * Records a G_LOADBLOCK or G_LOADTILE command loading texture data from this file.
+     * Every load is recorded, including loads that reuse an earlier G_SETTIMG.
+     *
+     * @param segmentAddr Segment address of the texture being loaded.
+     * @param cmdOffset   Offset of the load command.
+     */
+    private void recordTextureLoad(int segmentAddr, int cmdOffset) {
+        if (isLocal(segmentAddr)) {
+            ArrayList<Integer> loads = textureLoads.computeIfAbsent(segmentAddr & 0xFFFFFF, k -> new ArrayList<>());
+            if (!loads.contains(cmdOffset)) {
+                loads.add(cmdOffset);
+            }
+        }
+    }
+
+    /**
+     * Checks if a segment address points into this file.
+     *
+     * @param segmentAddr The segment address.
+     * @return True if the address is within this file, otherwise false.
+     */
+    private boolean isLocal(int segmentAddr) {
+        return (segmentAddr >>> 24) == segmentNum && (segmentAddr & 0xFFFFFF) < data.length;
+    }
+
+    /**
+     * Checks if a segment address points into another scene, room or object file.
+     *
+     * @param segmentAddr The segment address.
+     * @return True if the address is in the scene, room or object segment, otherwise false.
+     */
+    private boolean isKnownSegment(int segmentAddr) {
+        int segment = segmentAddr >>> 24;
+        return segment == Globals.SCENE_SEGMENT_NUM || segment == Globals.ROOM_SEGMENT_NUM ||
+                segment == Globals.OBJECT_SEGMENT_NUM;
+    }
+
+    /**
+     * Gets the offsets of every display list found.
+     *
+     * @return The display list offsets, in ascending order.
+     */
+    public Iterable<Integer> getDisplayLists() {
+        return displayLists;
+    }
+
+    /**
+     * Gets every texture and palette found.
+     *
+     * @return The textures, in ascending order of offset.
+     */
+    public Iterable<Texture> getTextures() {
+        return textures.values();
+    }
+
+    /**
+     * Gets the G_SETTIMG commands that load a texture or palette in this file.
+     *
+     * @param offset Offset of the texture within this file.
+     * @return The offsets of the commands, empty if none were found.
+     */
+    public ArrayList<Integer> getTextureReferences(int offset) {
+        ArrayList<Integer> refs = textureRefs.get(offset);
+        return (refs != null) ? refs : new ArrayList<>();
+    }
+
+    /**
+     * Gets the G_LOADBLOCK and G_LOADTILE commands that load a texture in this file.
+     *
+     * @param offset Offset of the texture within this file.
+     * @return The offsets of the commands, empty if none were found.
+     */
+    public ArrayList<Integer> getTextureLoads(int offset) {
+        ArrayList<Integer> loads = textureLoads.get(offset);
+        return (loads != null) ? loads : new ArrayList<>();
+    }
+
+    /**
+     * Gets the display lists in other files called by this file.
+     *
+     * @return The segment addresses of the display lists.
+     */
+    public ArrayList<Integer> getExternalDisplayLists() {
+        return externalDisplayLists;
+    }
+
+    /**
+     * Gets the vertex arrays in other files loaded by this file.
+     *
+     * @return Pairs of segment address and vertex count.
+     */
+    public ArrayList<Integer> getExternalVertices() {
+        return externalVertices;
+    }
+
+    /**
+     * Gets the textures in other files loaded by this file.
+     *
+     * @return The textures, with segment addresses in place of offsets.
+     */
+    public ArrayList<Texture> getExternalTextures() {
+        return externalTextures;
+    }
+
+    /**
+     * Generates the XML nodes for every display list, texture and vertex array found.
+     *
+     * @param prefix Prefix for the names of the nodes, usually the file name.
+     * @return The XML nodes, in ascending order of offset.
+     */
+    public String getXmlNodes(String prefix) {
+        TreeMap<Integer, String> nodes = new TreeMap<>();
+
+        for (Integer offset : displayLists) {
+            nodes.put(offset, "\t\t<DisplayList Name=\"" + prefix + "DL_" + hex(offset) +
+                    "\" Offset=\"0x" + hex(offset) + "\"/>\n");
+        }
+
+        for (Texture texture : textures.values()) {
+            String name = prefix + "Tex_" + hex(texture.getOffset());
+            String tlut = (texture.getTlutOffset() >= 0) ? " TlutOffset=\"0x" + hex(texture.getTlutOffset()) + "\"" : "";
+            nodes.putIfAbsent(texture.getOffset(), "\t\t<Texture Name=\"" + name + "\" OutName=\"" + name +
+                    "\" Format=\"" + texture.getFormatName() + "\" Width=\"" + texture.getWidth() +
+                    "\" Height=\"" + texture.getHeight() + "\" Offset=\"0x" + hex(texture.getOffset()) + "\"" +
+                    tlut + "/>\n");
+        }
+
+        // Merge overlapping vertex arrays, since each vertex can only be declared once
+        int arrayStart = -1;
+        int arrayEnd = -1;
+        for (Map.Entry<Integer, Integer> entry : vertices.entrySet()) {
+            int start = entry.getKey();
+            int end = start + entry.getValue() * VTX_SIZE;
+            if (start < arrayEnd) {
+                arrayEnd = Math.max(arrayEnd, end);
+                continue;
+            }
+            if (arrayStart >= 0) {
+                nodes.putIfAbsent(arrayStart, vertexArrayNode(prefix, arrayStart, arrayEnd));
+            }
+            arrayStart = start;
+            arrayEnd = end;
+        }
+        if (arrayStart >= 0) {
+            nodes.putIfAbsent(arrayStart, vertexArrayNode(prefix, arrayStart, arrayEnd));
+        }
+
+        StringBuilder out = new StringBuilder();
+        for (String node : nodes.values()) {
+            out.append(node);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Generates the XML node for a vertex array.
+     *
+     * @param prefix Prefix for the name of the node.
+     * @param start  Offset of the first vertex.
+     * @param end    Offset after the last vertex.
+     * @return The XML node.
+     */
+    private String vertexArrayNode(String prefix, int start, int end) {
+        return "\t\t<Array Name=\"" + prefix + "Vtx_" + hex(start) + "\" Count=\"" + ((end - start) / VTX_SIZE) +
+                "\" Offset=\"0x" + hex(start) + "\">\n" +
+                "\t\t\t<Vtx/>\n" +
+                "\t\t</Array>\n";
+    }
+
+    /**
+     * Formats an offset as uppercase hex.
+     *
+     * @param value The offset.
+     * @return The offset in hex, without a prefix.
+     */
+    private static String hex(int value) {
+        return Integer.toHexString(value).toUpperCase();
+    }
+}
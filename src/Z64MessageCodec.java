@@ -0,0 +1,363 @@
+/**
+ * Z64MessageCodec.java
+ * Converts between the Zelda 64 message encoding and a compact line-oriented text form.
+ * <p>
+ * Printable ASCII is written as-is, a newline (0x01) is written as "\n", and every other
+ * control code is written in braces with its arguments in hex, for example {COLOR:41}.
+ * Bytes without a name are written as a two digit hex value in braces, for example {03}.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Z64MessageCodec {
+    public static final int CTRL_NEWLINE = 0x01;
+    public static final int CTRL_END = 0x02;
+    public static final int CTRL_BOX_BREAK = 0x04;
+    public static final int CTRL_BOX_BREAK_DELAYED = 0x0C;
+    public static final int CTRL_TWO_CHOICE = 0x1B;
+    public static final int CTRL_THREE_CHOICE = 0x1C;
+
+    // Names of the control codes, indexed by their byte value
+    private static final String[] CONTROL_NAMES = new String[256];
+    // Number of argument bytes following each control code, -1 for bytes that are not control codes
+    private static final int[] CONTROL_ARG_LENGTHS = new int[256];
+    // Characters used for the bytes above the ASCII range, indexed by byte value minus 0x7F
+    private static final String EXTENDED_CHARS =
+            "\u203E\u00C0\u00EE\u00C2\u00C4\u00C7\u00C8\u00C9\u00CA\u00CB\u00CF\u00D4\u00D6\u00D9\u00DB\u00DC" +
+            "\u00DF\u00E0\u00E1\u00E2\u00E4\u00E7\u00E8\u00E9\u00EA\u00EB\u00EF\u00F4\u00F6\u00F9\u00FB\u00FC";
+    private static final int EXTENDED_CHARS_START = 0x7F;
+    private static final Map<String, Integer> CONTROL_CODES_BY_NAME = new HashMap<>();
+
+    // Byte classes used by the validator
+    private static final byte CLASS_INVALID = 0;
+    private static final byte CLASS_CHAR = 1;
+    private static final byte CLASS_CONTROL = 2;
+    private static final byte CLASS_NEWLINE = 3;
+    private static final byte CLASS_END = 4;
+    private static final byte CLASS_BOX_BREAK = 5;
+    private static final byte CLASS_CHOICE = 6;
+    private static final byte[] BYTE_CLASSES = new byte[256];
+
+    static {
+        for (int i = 0; i < CONTROL_ARG_LENGTHS.length; i++) {
+            CONTROL_ARG_LENGTHS[i] = -1;
+        }
+
+        defineControl(0x01, "NEWLINE", 0);
+        defineControl(0x02, "END", 0);
+        defineControl(0x04, "BOX_BREAK", 0);
+        defineControl(0x05, "COLOR", 1);
+        defineControl(0x06, "SHIFT", 1);
+        defineControl(0x07, "TEXTID", 2);
+        defineControl(0x08, "QUICKTEXT_ENABLE", 0);
+        defineControl(0x09, "QUICKTEXT_DISABLE", 0);
+        defineControl(0x0A, "PERSISTENT", 0);
+        defineControl(0x0B, "EVENT", 0);
+        defineControl(0x0C, "BOX_BREAK_DELAYED", 1);
+        defineControl(0x0D, "AWAIT_BUTTON_PRESS", 0);
+        defineControl(0x0E, "FADE", 1);
+        defineControl(0x0F, "NAME", 0);
+        defineControl(0x10, "OCARINA", 0);
+        defineControl(0x11, "FADE2", 2);
+        defineControl(0x12, "SFX", 2);
+        defineControl(0x13, "ITEM_ICON", 1);
+        defineControl(0x14, "TEXT_SPEED", 1);
+        defineControl(0x15, "BACKGROUND", 3);
+        defineControl(0x16, "MARATHON_TIME", 0);
+        defineControl(0x17, "RACE_TIME", 0);
+        defineControl(0x18, "POINTS", 0);
+        defineControl(0x19, "TOKENS", 0);
+        defineControl(0x1A, "UNSKIPPABLE", 0);
+        defineControl(0x1B, "TWO_CHOICE", 0);
+        defineControl(0x1C, "THREE_CHOICE", 0);
+        defineControl(0x1D, "FISH_INFO", 0);
+        defineControl(0x1E, "HIGHSCORE", 1);
+        defineControl(0x1F, "TIME", 0);
+
+        // Button icons
+        defineControl(0x9F, "A_BTN", 0);
+        defineControl(0xA0, "B_BTN", 0);
+        defineControl(0xA1, "C_BTN", 0);
+        defineControl(0xA2, "L_BTN", 0);
+        defineControl(0xA3, "R_BTN", 0);
+        defineControl(0xA4, "Z_BTN", 0);
+        defineControl(0xA5, "C_UP", 0);
+        defineControl(0xA6, "C_DOWN", 0);
+        defineControl(0xA7, "C_LEFT", 0);
+        defineControl(0xA8, "C_RIGHT", 0);
+        defineControl(0xA9, "TRIANGLE", 0);
+        defineControl(0xAA, "CONTROL_STICK", 0);
+        defineControl(0xAB, "D_PAD", 0);
+
+        // Classify every byte for the validator
+        for (int i = 0; i < BYTE_CLASSES.length; i++) {
+            if (CONTROL_NAMES[i] != null) {
+                BYTE_CLASSES[i] = CLASS_CONTROL;
+            } else if (i >= 0x20 && i < EXTENDED_CHARS_START + EXTENDED_CHARS.length()) {
+                BYTE_CLASSES[i] = CLASS_CHAR;
+            } else {
+                BYTE_CLASSES[i] = CLASS_INVALID;
+            }
+        }
+        BYTE_CLASSES[CTRL_NEWLINE] = CLASS_NEWLINE;
+        BYTE_CLASSES[CTRL_END] = CLASS_END;
+        BYTE_CLASSES[CTRL_BOX_BREAK] = CLASS_BOX_BREAK;
+        BYTE_CLASSES[CTRL_BOX_BREAK_DELAYED] = CLASS_BOX_BREAK;
+        BYTE_CLASSES[CTRL_TWO_CHOICE] = CLASS_CHOICE;
+        BYTE_CLASSES[CTRL_THREE_CHOICE] = CLASS_CHOICE;
+    }
+
+    /**
+     * Registers a control code.
+     *
+     * @param code    The byte value of the control code.
+     * @param name    The name used for the control code in text form.
+     * @param argSize The number of argument bytes following the control code.
+     */
+    private static void defineControl(int code, String name, int argSize) {
+        CONTROL_NAMES[code] = name;
+        CONTROL_ARG_LENGTHS[code] = argSize;
+        CONTROL_CODES_BY_NAME.put(name, code);
+    }
+
+    /**
+     * Gets the number of argument bytes following a control code.
+     *
+     * @param code The byte value.
+     * @return The number of argument bytes, or -1 if the byte is not a control code.
+     */
+    public static int getArgLength(int code) {
+        return CONTROL_ARG_LENGTHS[code & 0xFF];
+    }
+
+    /**
+     * Decodes a single message into its text form.
+     * Decoding stops at the END control code, or at the limit if the message is not terminated.
+     *
+     * @param data   The message data.
+     * @param offset Offset of the first byte of the message.
+     * @param limit  Offset decoding must not pass.
+     * @param out    StringBuilder the text is appended to.
+     * @return The offset after the END control code, or the limit if it was not found.
+     */
+    public static int decode(byte[] data, int offset, int limit, StringBuilder out) {
+        int i = offset;
+
+        while (i < limit) {
+            int c = data[i++] & 0xFF;
+
+            if (c == CTRL_END) {
+                return i;
+            }
+
+            if (c == CTRL_NEWLINE) {
+                out.append("\\n");
+            } else if (c == '\\' || c == '{' || c == '}') {
+                out.append('\\').append((char) c);
+            } else if (c >= 0x20 && c < EXTENDED_CHARS_START) {
+                out.append((char) c);
+            } else if (c >= EXTENDED_CHARS_START && c < EXTENDED_CHARS_START + EXTENDED_CHARS.length()) {
+                out.append(EXTENDED_CHARS.charAt(c - EXTENDED_CHARS_START));
+            } else if (CONTROL_NAMES[c] != null && CONTROL_ARG_LENGTHS[c] <= limit - i) {
+                int argLength = CONTROL_ARG_LENGTHS[c];
+
+                out.append('{').append(CONTROL_NAMES[c]);
+                if (argLength > 0) {
+                    out.append(':');
+                    for (int j = 0; j < argLength; j++) {
+                        appendHexByte(out, data[i++]);
+                    }
+                }
+                out.append('}');
+            } else {
+                // Unnamed bytes and truncated control codes are kept as raw bytes
+                out.append('{');
+                appendHexByte(out, (byte) c);
+                out.append('}');
+            }
+        }
+
+        return limit;
+    }
+
+    /**
+     * Finds the end of a message, skipping over control code arguments.
+     *
+     * @param data   The message data.
+     * @param offset Offset of the first byte of the message.
+     * @param limit  Offset the search must not pass.
+     * @return The offset after the END control code, or the limit if it was not found.
+     */
+    public static int findEnd(byte[] data, int offset, int limit) {
+        int i = offset;
+
+        while (i < limit) {
+            int c = data[i++] & 0xFF;
+
+            if (c == CTRL_END) {
+                return i;
+            }
+            if (CONTROL_ARG_LENGTHS[c] > 0) {
+                i += CONTROL_ARG_LENGTHS[c];
+            }
+        }
+
+        return limit;
+    }
+
+    /**
+     * Appends a byte as two uppercase hex digits.
+     *
+     * @param out StringBuilder to append to.
+     * @param b   The byte to append.
+     */
+    private static void appendHexByte(StringBuilder out, byte b) {
+        final String digits = "0123456789ABCDEF";
+        out.append(digits.charAt((b >> 4) & 0xF)).append(digits.charAt(b & 0xF));
+    }
+
+    /**
+     * Encodes the text form of a message, followed by the END control code and padding to 4 bytes.
+     *
+     * @param text The text form of the message.
+     * @param out  Stream the encoded message is written to.
+     * @throws IllegalArgumentException if the text contains unknown characters or control codes.
+     */
+    public static void encode(String text, ByteArrayOutputStream out) {
+        int start = out.size();
+        int i = 0;
+
+        while (i < text.length()) {
+            char c = text.charAt(i++);
+
+            if (c == '\\') {
+                if (i >= text.length()) {
+                    throw new IllegalArgumentException("Unterminated escape in message: " + text);
+                }
+                char escaped = text.charAt(i++);
+                out.write(escaped == 'n' ? CTRL_NEWLINE : escaped);
+            } else if (c == '{') {
+                int close = text.indexOf('}', i);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unterminated control code in message: " + text);
+                }
+                encodeControl(text.substring(i, close), out);
+                i = close + 1;
+            } else if (c >= 0x20 && c < EXTENDED_CHARS_START) {
+                out.write(c);
+            } else {
+                int extended = EXTENDED_CHARS.indexOf(c);
+                if (extended < 0) {
+                    throw new IllegalArgumentException("Unsupported character '" + c + "' in message: " + text);
+                }
+                out.write(EXTENDED_CHARS_START + extended);
+            }
+        }
+
+        out.write(CTRL_END);
+        while (((out.size() - start) & 3) != 0) {
+            out.write(0);
+        }
+    }
+
+    /**
+     * Encodes a single control code token, the text between a pair of braces.
+     *
+     * @param token The control code token, such as "COLOR:41" or "03".
+     * @param out   Stream the encoded bytes are written to.
+     * @throws IllegalArgumentException if the token is not a known control code.
+     */
+    private static void encodeControl(String token, ByteArrayOutputStream out) {
+        int colon = token.indexOf(':');
+        String name = (colon < 0) ? token : token.substring(0, colon);
+        String args = (colon < 0) ? "" : token.substring(colon + 1);
+        Integer code = CONTROL_CODES_BY_NAME.get(name);
+
+        if (code == null) {
+            // Raw byte written in hex
+            if (token.length() != 2) {
+                throw new IllegalArgumentException("Unknown control code: {" + token + "}");
+            }
+            out.write(Integer.parseInt(token, 16));
+            return;
+        }
+
+        if (args.length() != CONTROL_ARG_LENGTHS[code] * 2) {
+            throw new IllegalArgumentException("Wrong number of arguments for control code: {" + token + "}");
+        }
+
+        out.write(code);
+        for (int j = 0; j < args.length(); j += 2) {
+            out.write(Integer.parseInt(args.substring(j, j + 2), 16));
+        }
+    }
+
+    /**
+     * Checks a single message for malformed control codes.
+     * Every control code must have all of its arguments, a choice must be followed by a line for
+     * each option before the box ends, and the message must be terminated before the limit.
+     *
+     * @param data   The message data.
+     * @param offset Offset of the first byte of the message.
+     * @param limit  Offset the message must end before, usually the end of the data file.
+     * @return A description of the first problem found, or null if the message is valid.
+     */
+    public static String validate(byte[] data, int offset, int limit) {
+        if (offset < 0 || offset >= limit) {
+            return "offset 0x" + Integer.toHexString(offset) + " is outside of the data file";
+        }
+
+        // Number of newlines still required by a choice in the current box
+        int choiceLinesLeft = 0;
+        int choiceOffset = 0;
+        int i = offset;
+
+        while (i < limit) {
+            int c = data[i] & 0xFF;
+
+            switch (BYTE_CLASSES[c]) {
+                case CLASS_CHAR:
+                    i++;
+                    break;
+                case CLASS_CONTROL:
+                    if (i + 1 + CONTROL_ARG_LENGTHS[c] > limit) {
+                        return "truncated " + CONTROL_NAMES[c] + " at +0x" + Integer.toHexString(i - offset);
+                    }
+                    i += 1 + CONTROL_ARG_LENGTHS[c];
+                    break;
+                case CLASS_NEWLINE:
+                    if (choiceLinesLeft > 0) {
+                        choiceLinesLeft--;
+                    }
+                    i++;
+                    break;
+                case CLASS_CHOICE:
+                    choiceLinesLeft = (c == CTRL_TWO_CHOICE) ? 1 : 2;
+                    choiceOffset = i - offset;
+                    i++;
+                    break;
+                case CLASS_BOX_BREAK:
+                case CLASS_END:
+                    if (choiceLinesLeft > 0) {
+                        return "unterminated " + CONTROL_NAMES[data[offset + choiceOffset] & 0xFF] + " at +0x" +
+                                Integer.toHexString(choiceOffset);
+                    }
+                    if (c == CTRL_END) {
+                        return null;
+                    }
+                    // A delayed box break is followed by its delay
+                    if (i + 1 + CONTROL_ARG_LENGTHS[c] > limit) {
+                        return "truncated " + CONTROL_NAMES[c] + " at +0x" + Integer.toHexString(i - offset);
+                    }
+                    i += 1 + CONTROL_ARG_LENGTHS[c];
+                    break;
+                default:
+                    return "invalid byte 0x" + Integer.toHexString(c) + " at +0x" + Integer.toHexString(i - offset);
+            }
+        }
+
+        return "missing END";
+    }
+}
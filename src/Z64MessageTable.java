@@ -0,0 +1,319 @@
+/**
+ * Z64MessageTable.java
+ * Class representing a Zelda 64 message entry table.
+ * Parses the table into primitive arrays and provides text ID lookups.
+ */
+
+import java.util.Arrays;
+
+public class Z64MessageTable {
+    // Size of an entry in sNesMessageEntryTable and sStaffMessageEntryTable
+    public static final int ENTRY_SIZE = 8;
+    // Size of an entry in sGerMessageEntryTable and sFraMessageEntryTable
+    public static final int POINTER_ENTRY_SIZE = 4;
+
+    public static final int TEXT_ID_OTE_FIRST = 0xFFFC;
+    public static final int TEXT_ID_OTE_SECOND = 0xFFFD;
+    public static final int TEXT_ID_END = 0xFFFF;
+
+    private final String name;
+    private final boolean pointerOnly;
+    private int[] textIds;
+    private byte[] typePos;
+    private int[] segmentAddrs;
+    private final byte[] tail;
+    private long[] sortedIds = null;
+
+    /**
+     * Constructor for Z64MessageTable.
+     *
+     * @param name         Name of the table.
+     * @param pointerOnly  True if the table only holds segment addresses (German and French tables).
+     * @param textIds      Text ID of each entry, or null for pointer only tables.
+     * @param typePos      Box type and position of each entry, or null for pointer only tables.
+     * @param segmentAddrs Segment address of each entry.
+     * @param tail         Any bytes following the table entries.
+     */
+    private Z64MessageTable(String name, boolean pointerOnly, int[] textIds, byte[] typePos, int[] segmentAddrs,
+                            byte[] tail) {
+        this.name = name;
+        this.pointerOnly = pointerOnly;
+        this.textIds = textIds;
+        this.typePos = typePos;
+        this.segmentAddrs = segmentAddrs;
+        this.tail = tail;
+    }
+
+    /**
+     * Parses a table made of 8 byte entries (text ID, type/position, segment address).
+     * Parsing stops after the 0xFFFF terminator, any following bytes are kept as-is.
+     *
+     * @param data Raw table data.
+     * @param name Name of the table.
+     * @return The parsed table.
+     */
+    public static Z64MessageTable parseEntryTable(byte[] data, String name) {
+        int maxCount = data.length / ENTRY_SIZE;
+        int count = 0;
+
+        // Count the entries up to and including the terminator
+        while (count < maxCount) {
+            int textId = Globals.readShortFromByteArray(data, count * ENTRY_SIZE);
+            count++;
+            if (textId == TEXT_ID_END) {
+                break;
+            }
+        }
+
+        int[] textIds = new int[count];
+        byte[] typePos = new byte[count];
+        int[] segmentAddrs = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            int offset = i * ENTRY_SIZE;
+            textIds[i] = Globals.readShortFromByteArray(data, offset);
+            typePos[i] = data[offset + 2];
+            segmentAddrs[i] = Globals.readIntFromByteArray(data, offset + 4);
+        }
+
+        byte[] tail = Arrays.copyOfRange(data, count * ENTRY_SIZE, data.length);
+        return new Z64MessageTable(name, false, textIds, typePos, segmentAddrs, tail);
+    }
+
+    /**
+     * Parses a table made of 4 byte segment addresses, which shares its text IDs with the NES table.
+     *
+     * @param data Raw table data.
+     * @param name Name of the table.
+     * @return The parsed table.
+     */
+    public static Z64MessageTable parsePointerTable(byte[] data, String name) {
+        int count = data.length / POINTER_ENTRY_SIZE;
+        int[] segmentAddrs = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            segmentAddrs[i] = Globals.readIntFromByteArray(data, i * POINTER_ENTRY_SIZE);
+        }
+
+        byte[] tail = Arrays.copyOfRange(data, count * POINTER_ENTRY_SIZE, data.length);
+        return new Z64MessageTable(name, true, null, null, segmentAddrs, tail);
+    }
+
+    /**
+     * Gets the name of the table.
+     *
+     * @return The name of the table.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Checks if the table only holds segment addresses.
+     *
+     * @return True for the German and French tables, otherwise false.
+     */
+    public boolean isPointerOnly() {
+        return pointerOnly;
+    }
+
+    /**
+     * Gets the number of entries in the table, including the terminator.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return segmentAddrs.length;
+    }
+
+    /**
+     * Gets the text ID of an entry.
+     *
+     * @param index Index of the entry.
+     * @return The text ID of the entry.
+     * @throws IllegalStateException if the table only holds segment addresses.
+     */
+    public int getTextId(int index) {
+        if (pointerOnly) {
+            throw new IllegalStateException(name + " does not contain text IDs");
+        }
+        return textIds[index];
+    }
+
+    /**
+     * Gets the box type and position byte of an entry.
+     *
+     * @param index Index of the entry.
+     * @return The type/position byte of the entry.
+     * @throws IllegalStateException if the table only holds segment addresses.
+     */
+    public int getTypePos(int index) {
+        if (pointerOnly) {
+            throw new IllegalStateException(name + " does not contain box types");
+        }
+        return typePos[index] & 0xFF;
+    }
+
+    /**
+     * Gets the segment address of an entry.
+     *
+     * @param index Index of the entry.
+     * @return The segment address of the entry.
+     */
+    public int getSegmentAddr(int index) {
+        return segmentAddrs[index];
+    }
+
+    /**
+     * Sets the segment address of an entry.
+     *
+     * @param index       Index of the entry.
+     * @param segmentAddr The new segment address.
+     */
+    public void setSegmentAddr(int index, int segmentAddr) {
+        segmentAddrs[index] = segmentAddr;
+    }
+
+    /**
+     * Finds the index of the entry with the given text ID.
+     * The sorted index is built on first use, so lookups are O(log n).
+     *
+     * @param textId The text ID to search for.
+     * @return The index of the entry, or -1 if it is not in the table.
+     */
+    public int indexOf(int textId) {
+        if (pointerOnly) {
+            throw new IllegalStateException(name + " does not contain text IDs");
+        }
+
+        if (sortedIds == null) {
+            // Pack the text ID above the entry index, so sorting the keys sorts by text ID
+            long[] keys = new long[textIds.length];
+            for (int i = 0; i < textIds.length; i++) {
+                keys[i] = ((long) textIds[i] << 32) | i;
+            }
+            Arrays.sort(keys);
+            sortedIds = keys;
+        }
+
+        int low = 0;
+        int high = sortedIds.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = (int) (sortedIds[mid] >>> 32);
+            if (midId < textId) {
+                low = mid + 1;
+            } else if (midId > textId) {
+                high = mid - 1;
+            } else {
+                return (int) sortedIds[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Ocarina Text Editor places message 0xFFFC at the start of the table, which ZAPDTR does not accept.
+     * Moves 0xFFFC, 0xFFFD and the terminator to the end of the table in a single pass.
+     *
+     * @return The permutation applied to the table (new index to old index), or null if nothing was changed.
+     */
+    public int[] fixOcarinaTextEditorOrder() {
+        int count = size();
+
+        if (pointerOnly || count == 0 || textIds[0] != TEXT_ID_OTE_FIRST) {
+            return null;
+        }
+
+        int[] order = new int[count];
+        int indexFFFD = -1;
+        int indexFFFF = -1;
+        int next = 0;
+
+        for (int i = 1; i < count; i++) {
+            if (textIds[i] == TEXT_ID_OTE_SECOND && indexFFFD < 0) {
+                indexFFFD = i;
+            } else if (textIds[i] == TEXT_ID_END && indexFFFF < 0) {
+                indexFFFF = i;
+            } else {
+                order[next++] = i;
+            }
+        }
+
+        // Without both entries the table can't be put in the expected order
+        if (indexFFFD < 0 || indexFFFF < 0) {
+            return null;
+        }
+
+        order[next++] = 0;
+        order[next++] = indexFFFD;
+        order[next] = indexFFFF;
+
+        applyPermutation(order);
+        return order;
+    }
+
+    /**
+     * Reorders the entries of the table.
+     * Pointer only tables have no terminator entry, so only the indices below their size are used.
+     *
+     * @param order Permutation mapping each new index to an old index.
+     * @throws IllegalArgumentException if the permutation does not fit this table.
+     */
+    public void applyPermutation(int[] order) {
+        int count = size();
+        if (order.length < count) {
+            throw new IllegalArgumentException("Permutation is too short for " + name);
+        }
+
+        int[] newSegmentAddrs = new int[count];
+        int[] newTextIds = pointerOnly ? null : new int[count];
+        byte[] newTypePos = pointerOnly ? null : new byte[count];
+
+        for (int i = 0; i < count; i++) {
+            int old = order[i];
+            if (old >= count) {
+                throw new IllegalArgumentException("Permutation does not fit " + name);
+            }
+            newSegmentAddrs[i] = segmentAddrs[old];
+            if (!pointerOnly) {
+                newTextIds[i] = textIds[old];
+                newTypePos[i] = typePos[old];
+            }
+        }
+
+        segmentAddrs = newSegmentAddrs;
+        textIds = newTextIds;
+        typePos = newTypePos;
+        sortedIds = null;
+    }
+
+    /**
+     * Serializes the table back into its binary form.
+     *
+     * @return The raw table data.
+     */
+    public byte[] toByteArray() {
+        int entrySize = pointerOnly ? POINTER_ENTRY_SIZE : ENTRY_SIZE;
+        int count = size();
+        byte[] out = new byte[count * entrySize + tail.length];
+
+        for (int i = 0; i < count; i++) {
+            int offset = i * entrySize;
+            if (!pointerOnly) {
+                out[offset] = (byte) (textIds[i] >> 8);
+                out[offset + 1] = (byte) textIds[i];
+                out[offset + 2] = typePos[i];
+                out[offset + 3] = 0;
+                offset += 4;
+            }
+            out[offset] = (byte) (segmentAddrs[i] >> 24);
+            out[offset + 1] = (byte) (segmentAddrs[i] >> 16);
+            out[offset + 2] = (byte) (segmentAddrs[i] >> 8);
+            out[offset + 3] = (byte) segmentAddrs[i];
+        }
+
+        System.arraycopy(tail, 0, out, count * entrySize, tail.length);
+        return out;
+    }
+}
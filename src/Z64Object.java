@@ -4,24 +4,70 @@
  * Handles the creation and management of ROM files for Zelda 64 objects.
  */
 
-import java.io.File;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Iterator;
 
 public class Z64Object implements Iterable<RomFile> {
     private final ArrayList<RomFile> _objectRomFiles = new ArrayList<>();
+    private final Z64DisplayListScanner displayLists;
 
     /**
      * Constructor for Z64Object.
-     * Reads an object file and creates a corresponding ROM file.
+     * Takes an object file and finds its display lists.
      *
      * @param f The object file to be loaded.
-     * @throws RuntimeException if the file cannot be read or converted to a byte array.
      */
-    public Z64Object(File f) {
-        String name = f.getName();
-        byte[] objectData = Globals.fileToByteArr(f);
-        _objectRomFiles.add(new RomFile(objectData, name));
+    public Z64Object(RomFile f) {
+        byte[] objectData = f.getData();
+        _objectRomFiles.add(f);
+
+        // Objects have no header, so display lists are found by searching the whole file
+        displayLists = new Z64DisplayListScanner(objectData, Globals.OBJECT_SEGMENT_NUM);
+        displayLists.scanForDisplayLists();
+    }
+
+    /**
+     * Adds the textures found in the object to a texture index.
+     *
+     * @param index The texture index.
+     */
+    public void addTextures(Z64TextureIndex index) {
+        RomFile object = _objectRomFiles.get(0);
+        index.addFile(object.getName(), object.getData(), displayLists);
+    }
+
+    /**
+     * Reports the textures of the object that could be stored in a smaller format.
+     * Object textures are never converted, since actors may load them with their own commands.
+     */
+    public void analyzeTextures() {
+        RomFile object = _objectRomFiles.get(0);
+        Z64TextureAnalyzer.analyzeFile(object.getName(), object.getData(), displayLists, false);
+    }
+
+    /**
+     * Saves an XML describing the display lists, textures and vertices found in the object.
+     *
+     * @param outPath The path where the XML file should be saved.
+     * @throws RuntimeException if an error occurs during file writing.
+     */
+    public void saveXml(String outPath) {
+        RomFile object = _objectRomFiles.get(0);
+        File outXmlFile = new File(outPath + "/" + object.getName() + ".xml");
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(outXmlFile.toPath()), StandardCharsets.UTF_8))) {
+            writer.write("<Root>\n");
+            writer.write("\t<File Name=\"" + object.getName() + "\" Segment=\"" + Globals.OBJECT_SEGMENT_NUM + "\">\n");
+            writer.write(displayLists.getXmlNodes(object.getName()));
+            writer.write("\t</File>\n");
+            writer.write("</Root>\n");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -0,0 +1,80 @@
+/**
+ * Z64ObjectTable.java
+ * Class representing the Zelda 64 object table.
+ * Maps object file names to object IDs using the decomp's object_table.h.
+ */
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class Z64ObjectTable {
+    // An entry, optionally after an index comment such as "/* 0x0001 */"
+    private static final Pattern ENTRY_PATTERN = Pattern.compile("^\\s*(?:/\\*.*?\\*/\\s*)?DEFINE_OBJECT\\w*\\((.*)$");
+
+    private final Map<String, Integer> idsByName = new HashMap<>();
+    private final ArrayList<String> namesById = new ArrayList<>();
+
+    /**
+     * Constructor for Z64ObjectTable.
+     * Every line starting with DEFINE_OBJECT, after an optional index comment, takes up one object ID, in order.
+     *
+     * @param f The object_table.h file.
+     * @throws RuntimeException if the file can't be read.
+     */
+    public Z64ObjectTable(RomFile f) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(f.getData()), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher m = ENTRY_PATTERN.matcher(line);
+                if (!m.find()) {
+                    continue;
+                }
+
+                // The file name is the first argument of objects that have a file
+                String args = m.group(1);
+                int argEnd = args.indexOf(',');
+                String name = null;
+                if (argEnd > 0) {
+                    name = args.substring(0, argEnd).trim();
+                    idsByName.put(name, namesById.size());
+                }
+                namesById.add(name);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading file: " + f.getName(), e);
+        }
+    }
+
+    /**
+     * Gets the object ID of an object file.
+     *
+     * @param name The name of the object file, such as object_box.
+     * @return The object ID, or -1 if the object is not in the table.
+     */
+    public int getId(String name) {
+        Integer id = idsByName.get(name);
+        return (id == null) ? -1 : id;
+    }
+
+    /**
+     * Gets the name of the object file with the given ID.
+     *
+     * @param id The object ID.
+     * @return The name of the object file, or null if the ID has no file.
+     */
+    public String getName(int id) {
+        if (id < 0 || id >= namesById.size()) {
+            return null;
+        }
+        return namesById.get(id);
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Z64Rom.java
+ * Class representing a whole Zelda 64 ROM.
+ * Memory-maps a .z64 ROM, finds its DMA table and file name table, and exposes each file
+ * as a RomFile slice of the mapped ROM, so no file has to be extracted to disk first.
+ * Compressed files can be decompressed all at once, in parallel, before they are used.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Z64Rom {
+    // First word of a big-endian ROM, and of the byte-swapped .v64 and .n64 formats
+    private static final int Z64_MAGIC = 0x80371240;
+    private static final int V64_MAGIC = 0x37804012;
+    private static final int N64_MAGIC = 0x40123780;
+
+    // The boot file always follows the ROM header and IPL3, and is loaded to the same address
+    private static final int BOOT_ROM_START = 0x1060;
+    private static final int BOOT_RAM_START = 0x80000460;
+
+    // DMA table entries: vromStart, vromEnd, romStart, romEnd
+    private static final int DMA_ENTRY_SIZE = 0x10;
+    private static final int DMA_DELETED = 0xFFFFFFFF;
+    private static final String FIRST_FILE_NAME = "makerom";
+
+    private final MappedByteBuffer rom;
+    private final int dmaDataOffset;
+    private final Map<String, RomFile> files = new LinkedHashMap<>();
+    private final List<RomFile> compressedFiles = new ArrayList<>();
+
+    /**
+     * Constructor for Z64Rom.
+     * Maps the ROM into memory and reads its DMA table. File data is not read until it is used.
+     *
+     * @param f The .z64 ROM file.
+     * @throws IllegalArgumentException if the file is not a big-endian ROM with a file name table.
+     * @throws RuntimeException         if the file can't be read.
+     */
+    public Z64Rom(File f) {
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            rom = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read ROM: " + f.getName(), e);
+        }
+
+        if (rom.capacity() < BOOT_ROM_START + DMA_ENTRY_SIZE) {
+            throw new IllegalArgumentException(f.getName() + " is too small to be a ROM");
+        }
+        int magic = rom.getInt(0);
+        if (magic == V64_MAGIC || magic == N64_MAGIC) {
+            throw new IllegalArgumentException(f.getName() + " is byte-swapped, convert it to .z64 first");
+        }
+        if (magic != Z64_MAGIC) {
+            throw new IllegalArgumentException(f.getName() + " is not an N64 ROM");
+        }
+
+        dmaDataOffset = findDmaData();
+        if (dmaDataOffset < 0) {
+            throw new IllegalArgumentException("No DMA table found in " + f.getName());
+        }
+
+        readFiles(f.getName());
+    }
+
+    /**
+     * Finds the DMA table by its first two entries, makerom and boot, which are the same in every ROM.
+     *
+     * @return The offset of the DMA table, or -1 if it was not found.
+     */
+    private int findDmaData() {
+        for (int offset = 0; offset + 2 * DMA_ENTRY_SIZE <= rom.capacity(); offset += DMA_ENTRY_SIZE) {
+            if (rom.getInt(offset) == 0 && rom.getInt(offset + 4) == BOOT_ROM_START &&
+                    rom.getInt(offset + 8) == 0 && rom.getInt(offset + 12) == 0 &&
+                    rom.getInt(offset + 16) == BOOT_ROM_START && rom.getInt(offset + 24) == BOOT_ROM_START) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads every entry of the DMA table, naming each file with the file name table in boot.
+     *
+     * @param romName The name of the ROM, used in error messages.
+     * @throws IllegalArgumentException if the ROM has no file name table or a file is outside of the ROM.
+     */
+    private void readFiles(String romName) {
+        int numEntries = 0;
+        while (dmaDataOffset + (numEntries + 1) * DMA_ENTRY_SIZE <= rom.capacity() &&
+                rom.getInt(dmaDataOffset + numEntries * DMA_ENTRY_SIZE + 4) != 0) {
+            numEntries++;
+        }
+
+        String[] names = readFileNames(numEntries);
+        if (names == null) {
+            throw new IllegalArgumentException(romName + " has no file name table, only debug ROMs are supported");
+        }
+
+        for (int i = 0; i < numEntries; i++) {
+            int entry = dmaDataOffset + i * DMA_ENTRY_SIZE;
+            int vromStart = rom.getInt(entry);
+            int vromEnd = rom.getInt(entry + 4);
+            int romStart = rom.getInt(entry + 8);
+            int romEnd = rom.getInt(entry + 12);
+
+            if (romStart == DMA_DELETED || vromEnd == vromStart) {
+                continue;
+            }
+
+            // Compressed files end at romEnd, uncompressed files have a romEnd of 0
+            int size = (romEnd != 0) ? romEnd - romStart : vromEnd - vromStart;
+            if (size < 0 || (romStart & 0xFFFFFFFFL) + size > rom.capacity()) {
+                throw new IllegalArgumentException(romName + ": " + names[i] + " is outside of the ROM");
+            }
+
+            RomFile file = new RomFile(slice(romStart, size), names[i]);
+            files.put(names[i], file);
+            if (romEnd != 0) {
+                compressedFiles.add(file);
+            }
+        }
+    }
+
+    /**
+     * Decompresses every compressed file of the ROM at once, in parallel.
+     *
+     * @throws RuntimeException if a compressed file is malformed.
+     */
+    public void decompressAll() {
+        compressedFiles.parallelStream().forEach(RomFile::getData);
+    }
+
+    /**
+     * Reads the file name table of a debug ROM.
+     * The table is an array of pointers into boot, found by searching boot for the address of the first
+     * file's name.
+     *
+     * @param numEntries The number of entries in the DMA table.
+     * @return The name of each DMA table entry, or null if the ROM has no file name table.
+     */
+    private String[] readFileNames(int numEntries) {
+        int bootSize = rom.getInt(dmaDataOffset + DMA_ENTRY_SIZE + 4) - BOOT_ROM_START;
+        int bootEnd = Math.min(BOOT_ROM_START + bootSize, rom.capacity());
+        byte[] firstName = (FIRST_FILE_NAME + "\0").getBytes(StandardCharsets.US_ASCII);
+
+        for (int nameOffset = BOOT_ROM_START; nameOffset + firstName.length <= bootEnd; nameOffset += 4) {
+            if (!matches(nameOffset, firstName)) {
+                continue;
+            }
+
+            // Look for the pointer to the name, which starts the table
+            int nameAddr = BOOT_RAM_START + (nameOffset - BOOT_ROM_START);
+            for (int table = BOOT_ROM_START; table + numEntries * 4 <= bootEnd; table += 4) {
+                if (rom.getInt(table) != nameAddr) {
+                    continue;
+                }
+
+                String[] names = new String[numEntries];
+                for (int i = 0; i < numEntries && names != null; i++) {
+                    int offset = rom.getInt(table + i * 4) - BOOT_RAM_START + BOOT_ROM_START;
+                    names[i] = (offset >= BOOT_ROM_START && offset < bootEnd) ? readString(offset, bootEnd) : null;
+                    if (names[i] == null) {
+                        names = null;
+                    }
+                }
+                if (names != null) {
+                    return names;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks if the ROM contains a sequence of bytes at an offset.
+     *
+     * @param offset The offset within the ROM.
+     * @param bytes  The bytes to compare against.
+     * @return True if the bytes match, otherwise false.
+     */
+    private boolean matches(int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (rom.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a null-terminated ASCII string from the ROM.
+     *
+     * @param offset The offset of the string.
+     * @param end    The offset the string must end before.
+     * @return The string, or null if it isn't terminated before the end offset.
+     */
+    private String readString(int offset, int end) {
+        StringBuilder out = new StringBuilder();
+        for (int i = offset; i < end; i++) {
+            byte b = rom.get(i);
+            if (b == 0) {
+                return out.toString();
+            }
+            out.append((char) b);
+        }
+        return null;
+    }
+
+    /**
+     * Creates a view of part of the ROM, without copying it.
+     *
+     * @param offset The offset of the first byte.
+     * @param size   The number of bytes.
+     * @return A buffer holding exactly the requested bytes.
+     */
+    private ByteBuffer slice(int offset, int size) {
+        ByteBuffer out = rom.duplicate();
+        out.position(offset);
+        out.limit(offset + size);
+        return out.slice();
+    }
+
+    /**
+     * Gets the offset of the DMA table within the ROM.
+     *
+     * @return The DMA table offset.
+     */
+    public int getDmaDataOffset() {
+        return dmaDataOffset;
+    }
+
+    /**
+     * Gets a file of the ROM by name.
+     *
+     * @param name The name of the file, such as code.
+     * @return The file, or null if the ROM has no file with that name.
+     */
+    public RomFile getFile(String name) {
+        return files.get(name);
+    }
+
+    /**
+     * Gets every file of the ROM, in DMA table order.
+     *
+     * @return The list of files.
+     */
+    public ArrayList<RomFile> getFiles() {
+        return new ArrayList<>(files.values());
+    }
+}
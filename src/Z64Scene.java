@@ -8,30 +8,55 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 public class Z64Scene implements Iterable<RomFile> {
-    private final RomFile sceneRomFile;
+    private RomFile sceneRomFile;
     private final ArrayList<RomFile> roomRomFiles = new ArrayList<>();
+    private final ArrayList<Set<Integer>> roomHeaderOffsetLists = new ArrayList<>();
+    private final ArrayList<Z64DisplayListScanner> roomDisplayLists = new ArrayList<>();
+    private Z64DisplayListScanner sceneDisplayLists = null;
     private final Set<Integer> sceneHeaderOffsetList = new HashSet<>();
     private final Set<Integer> collisionHeaderOffsetList = new HashSet<>();
     private final ArrayList<PathwayList> pathways = new ArrayList<>();
+    private final ArrayList<Z64Collision> collisions = new ArrayList<>();
+    private final TreeSet<Integer> cutsceneOffsetList = new TreeSet<>();
+
+    // Size of each entry of the header commands that point to a counted list, indexed by command, or 0
+    private static final int[] LIST_ENTRY_SIZES = new int[DecompEnums.Z64SceneCommand.values().length];
+
+    static {
+        LIST_ENTRY_SIZES[DecompEnums.Z64SceneCommand.SPAWN_LIST.ordinal()] = 0x10;
+        LIST_ENTRY_SIZES[DecompEnums.Z64SceneCommand.ACTOR_LIST.ordinal()] = 0x10;
+        LIST_ENTRY_SIZES[DecompEnums.Z64SceneCommand.ROOM_LIST.ordinal()] = 8;
+        LIST_ENTRY_SIZES[DecompEnums.Z64SceneCommand.OBJECT_LIST.ordinal()] = 2;
+        LIST_ENTRY_SIZES[DecompEnums.Z64SceneCommand.LIGHT_LIST.ordinal()] = 0xE;
+        LIST_ENTRY_SIZES[DecompEnums.Z64SceneCommand.TRANSITION_ACTOR_LIST.ordinal()] = 0x10;
+        LIST_ENTRY_SIZES[DecompEnums.Z64SceneCommand.LIGHT_SETTINGS_LIST.ordinal()] = 0x16;
+    }
 
     /**
      * Constructor for Z64Scene.
      * Initializes the scene by extracting offsets for headers, collisions, and pathways.
      *
      * @param scene The ROM file representing the scene.
-     * @throws RuntimeException if the scene file is malformed or invalid.
+     * @throws SceneParseException if the scene file is malformed or invalid.
      */
     public Z64Scene(RomFile scene) {
         sceneRomFile = scene;
         getAlternateSceneHeaderOffsets();
         getCollisionHeaderOffsets();
         getPathways();
+        getCutsceneOffsets();
         fixSharpOcarinaWaterboxPointers();
+        parseCollision();
     }
 
     /**
@@ -48,28 +73,114 @@ public class Z64Scene implements Iterable<RomFile> {
                 (((int) arr[offsetInArr + 3] & 0xFF));
     }
 
+    /**
+     * Reads a segment address from a scene or room file, and checks that it points to data within the file.
+     *
+     * @param file       The scene or room file.
+     * @param offset     Offset of the segment address within the file.
+     * @param segmentNum The segment the file is loaded into.
+     * @param size       The number of bytes the address must have room for.
+     * @param what       Description of the data the address points to, used in the error message.
+     * @return The offset the segment address points to within the file.
+     * @throws SceneParseException if the address is in another segment or points past the end of the file.
+     */
+    private static int readFilePointer(RomFile file, int offset, int segmentNum, int size, String what) {
+        byte[] data = file.getData();
+        int segmentAddr = Globals.readIntFromByteArray(data, offset);
+        int target = segmentAddr & 0xFFFFFF;
+
+        if ((segmentAddr >>> 24) != segmentNum || target + size > data.length) {
+            throw new SceneParseException(file.getName(), offset, String.format(
+                    "%s at 0x%08X is outside of the file (0x%X bytes)", what, segmentAddr, data.length));
+        }
+        return target;
+    }
+
+    /**
+     * Checks that a header ends with an END command before the end of the file, that it only contains known
+     * commands, and that every list it points to lies within the file.
+     *
+     * @param file       The scene or room file.
+     * @param header     Offset of the header.
+     * @param segmentNum The segment the file is loaded into.
+     * @throws SceneParseException if the header is malformed.
+     */
+    private static void checkHeader(RomFile file, int header, int segmentNum) {
+        byte[] data = file.getData();
+
+        for (int offset = header; ; offset += 8) {
+            if (offset + 8 > data.length) {
+                throw new SceneParseException(file.getName(), header, "header has no END command");
+            }
+
+            int cmd = data[offset] & 0xFF;
+            if (cmd == DecompEnums.Z64SceneCommand.END.ordinal()) {
+                return;
+            }
+            if (cmd >= LIST_ENTRY_SIZES.length) {
+                throw new SceneParseException(file.getName(), offset, "unknown header command 0x" +
+                        Integer.toHexString(cmd).toUpperCase());
+            }
+
+            int count = data[offset + 1] & 0xFF;
+            if (LIST_ENTRY_SIZES[cmd] > 0 && count > 0) {
+                readFilePointer(file, offset + 4, segmentNum, count * LIST_ENTRY_SIZES[cmd],
+                        DecompEnums.Z64SceneCommand.values()[cmd].name());
+            }
+        }
+    }
+
     /**
      * Finds the addresses of all the alternate scene headers in the scene ROM file.
      *
-     * @throws RuntimeException if scene data is malformed or missing expected headers.
+     * @throws SceneParseException if scene data is malformed or missing expected headers.
      */
     private void getAlternateSceneHeaderOffsets() {
-        byte[] sceneData = sceneRomFile.getData();
-        int altHeaderListOffset = getHeaderCmdOffset(0, DecompEnums.Z64SceneCommand.ALTERNATE_HEADER_LIST.ordinal());
+        sceneHeaderOffsetList.addAll(getHeaderOffsets(sceneRomFile, Globals.SCENE_SEGMENT_NUM));
+    }
+
+    /**
+     * Finds the offsets of the default header and all alternate headers in a scene or room file,
+     * and checks each header.
+     *
+     * @param file       The scene or room file.
+     * @param segmentNum The segment the file is loaded into.
+     * @return The set of header offsets, always including the default header at the start of the file.
+     * @throws SceneParseException if a header or the alternate header list is malformed.
+     */
+    private Set<Integer> getHeaderOffsets(RomFile file, int segmentNum) {
+        byte[] data = file.getData();
+        Set<Integer> out = new HashSet<>();
 
         // Add default header at start of file
-        sceneHeaderOffsetList.add(0);
+        checkHeader(file, 0, segmentNum);
+        out.add(0);
 
-        if (altHeaderListOffset > 0) {
-            // Skip the blank headers at the start
-            altHeaderListOffset += 0xC;
+        int altHeaderListOffset = getHeaderCmdOffset(data, 0, DecompEnums.Z64SceneCommand.ALTERNATE_HEADER_LIST.ordinal());
+        if (altHeaderListOffset >= 0) {
+            altHeaderListOffset = readFilePointer(file, altHeaderListOffset + 4, segmentNum, 3 * 4,
+                    "Alternate header list");
 
-            // Add each alternate header in the list
-            while (sceneData[altHeaderListOffset] == Globals.SCENE_SEGMENT_NUM) {
-                sceneHeaderOffsetList.add(segAddrToOffset(sceneData, altHeaderListOffset));
+            // The first three headers (child night, adult day, adult night) may be blank
+            for (int i = 0; i < 3; i++) {
+                if (data[altHeaderListOffset] == segmentNum) {
+                    out.add(readFilePointer(file, altHeaderListOffset, segmentNum, 8, "Alternate header"));
+                }
                 altHeaderListOffset += 4;
             }
+
+            // Add each cutscene header in the list
+            while (altHeaderListOffset + 4 <= data.length && data[altHeaderListOffset] == segmentNum) {
+                out.add(readFilePointer(file, altHeaderListOffset, segmentNum, 8, "Alternate header"));
+                altHeaderListOffset += 4;
+            }
+
+            for (Integer header : out) {
+                checkHeader(file, header, segmentNum);
+            }
         }
+
+        return out;
     }
 
     /**
@@ -80,11 +191,22 @@ public class Z64Scene implements Iterable<RomFile> {
      * @return The offset of the command in the scene data array, or -1 if not found.
      */
     private int getHeaderCmdOffset(int headerBase, int cmd) {
-        byte[] sceneData = sceneRomFile.getData();
+        return getHeaderCmdOffset(sceneRomFile.getData(), headerBase, cmd);
+    }
 
-        if (sceneData != null) {
-            while (headerBase < sceneData.length && sceneData[headerBase] != DecompEnums.Z64SceneCommand.END.ordinal()) {
-                if (sceneData[headerBase] == cmd) {
+    /**
+     * Gets the offset of a command within a scene or room header.
+     * The header must have been checked by checkHeader() first.
+     *
+     * @param data       The scene or room data.
+     * @param headerBase The base offset within the header to start searching from.
+     * @param cmd        The command type to search for within the header.
+     * @return The offset of the command in the data array, or -1 if not found.
+     */
+    private int getHeaderCmdOffset(byte[] data, int headerBase, int cmd) {
+        if (data != null) {
+            while (headerBase < data.length && data[headerBase] != DecompEnums.Z64SceneCommand.END.ordinal()) {
+                if (data[headerBase] == cmd) {
                     return headerBase;
                 }
                 headerBase += 8;
@@ -117,14 +239,16 @@ public class Z64Scene implements Iterable<RomFile> {
     /**
      * Sets the list of collision headers for the scene, to be patched later.
      *
-     * @throws RuntimeException if scene data is malformed or missing collision headers.
+     * @throws SceneParseException if a collision header is outside of the scene file.
      */
     private void getCollisionHeaderOffsets() {
-        byte[] sceneData = sceneRomFile.getData();
-
         for (Integer header : sceneHeaderOffsetList) {
             int collisionHeaderCmdOffset = getHeaderCmdOffset(header, DecompEnums.Z64SceneCommand.COLLISION_HEADER.ordinal());
-            int collisionHeaderOffset = segAddrToOffset(sceneData, collisionHeaderCmdOffset + 4);
+            if (collisionHeaderCmdOffset < 0) {
+                continue;
+            }
+            int collisionHeaderOffset = readFilePointer(sceneRomFile, collisionHeaderCmdOffset + 4,
+                    Globals.SCENE_SEGMENT_NUM, Z64Collision.HEADER_SIZE, "Collision header");
 
             // Add collision header to list
             collisionHeaderOffsetList.add(collisionHeaderOffset);
@@ -132,6 +256,146 @@ public class Z64Scene implements Iterable<RomFile> {
     }
 
 
+    /**
+     * Parses every collision header of the scene.
+     */
+    private void parseCollision() {
+        for (Integer colHeaderOffset : new TreeSet<>(collisionHeaderOffsetList)) {
+            collisions.add(new Z64Collision(sceneRomFile.getData(), colHeaderOffset));
+        }
+    }
+
+    /**
+     * Checks the collision of the scene for errors, and prints its statistics.
+     *
+     * @throws RuntimeException if the collision has errors that would crash the game.
+     */
+    public void checkCollision() {
+        List<String> errors = new ArrayList<>();
+        List<String> warnings = new ArrayList<>();
+        int numVertices = 0;
+        int numPolygons = 0;
+        int numSurfaceTypes = 0;
+        int numCameras = 0;
+        int numWaterboxes = 0;
+
+        for (Z64Collision collision : collisions) {
+            collision.validate(errors, warnings);
+            numVertices += collision.getNumVertices();
+            numPolygons += collision.getNumPolygons();
+            numSurfaceTypes += collision.getNumSurfaceTypes();
+            numCameras += collision.getNumCameras();
+            numWaterboxes += collision.getNumWaterboxes();
+        }
+
+        System.out.println(OutputHelpers.BLUE + "    " + getName() + " collision: " + collisions.size() +
+                " header(s), " + numVertices + " vertices, " + numPolygons + " polygons, " + numSurfaceTypes +
+                " surface types, " + numCameras + " cameras, " + numWaterboxes + " waterboxes" + OutputHelpers.RESET);
+
+        for (String warning : warnings) {
+            System.out.println(OutputHelpers.YELLOW + "    " + getName() + ": " + warning + OutputHelpers.RESET);
+        }
+
+        if (errors.isEmpty()) {
+            return;
+        }
+
+        for (String error : errors) {
+            System.out.println(OutputHelpers.RED + "    " + getName() + ": " + error + OutputHelpers.RESET);
+        }
+        throw new RuntimeException(errors.size() + " collision error(s) found in " + getName() +
+                "! Fix them before porting.");
+    }
+
+    /**
+     * Simplifies the collision mesh of every collision header in the scene.
+     * Collision headers sharing a vertex or polygon list with another header are left alone.
+     *
+     * @return The number of polygons before and after simplifying.
+     */
+    public int[] simplifyCollision() {
+        int[] out = new int[2];
+
+        for (Z64Collision collision : collisions) {
+            out[0] += collision.getNumPolygons();
+
+            boolean shared = false;
+            for (Z64Collision other : collisions) {
+                shared |= (other != collision && collision.sharesListsWith(other));
+            }
+            if (!shared) {
+                collision.simplify();
+            }
+
+            out[1] += collision.getNumPolygons();
+        }
+
+        return out;
+    }
+
+    /**
+     * Finds the cutscene data used by the CUTSCENE_DATA command of every scene header.
+     *
+     * @throws SceneParseException if the cutscene data is outside of the scene file.
+     */
+    private void getCutsceneOffsets() {
+        byte[] sceneData = sceneRomFile.getData();
+
+        for (Integer header : sceneHeaderOffsetList) {
+            int cutsceneCmdOffset = getHeaderCmdOffset(header, DecompEnums.Z64SceneCommand.CUTSCENE_DATA.ordinal());
+            if (cutsceneCmdOffset < 0 || sceneData[cutsceneCmdOffset + 4] != Globals.SCENE_SEGMENT_NUM) {
+                continue;
+            }
+            cutsceneOffsetList.add(readFilePointer(sceneRomFile, cutsceneCmdOffset + 4, Globals.SCENE_SEGMENT_NUM, 8,
+                    "Cutscene data"));
+        }
+    }
+
+    /**
+     * Gets the offsets of the cutscene data used by the scene headers.
+     *
+     * @return The cutscene offsets, in ascending order.
+     */
+    public Set<Integer> getCutsceneOffsetList() {
+        return cutsceneOffsetList;
+    }
+
+    /**
+     * Gets the resource name of a cutscene in the scene, as declared in the scene's XML.
+     *
+     * @param offset Offset of the cutscene data within the scene.
+     * @return The cutscene's resource name.
+     */
+    public String getCutsceneName(int offset) {
+        return getName() + "CutsceneData_" + Integer.toHexString(offset).toUpperCase();
+    }
+
+    /**
+     * Gets the path of a cutscene resource in the generated .otr.
+     *
+     * @param offset Offset of the cutscene data within the scene.
+     * @return The resource path of the cutscene.
+     */
+    public String getCutscenePath(int offset) {
+        return "__OTR__scenes/shared/" + sceneRomFile.getName() + "/" + getCutsceneName(offset);
+    }
+
+    /**
+     * Generates the XML nodes for every cutscene used by the scene headers.
+     *
+     * @return The XML nodes, in ascending order of offset.
+     */
+    private String getAllCutsceneNodes() {
+        StringBuilder out = new StringBuilder();
+
+        for (Integer offset : cutsceneOffsetList) {
+            out.append("\t\t<Cutscene Name=\"").append(getCutsceneName(offset)).append("\" Offset=\"0x")
+                    .append(Integer.toHexString(offset).toUpperCase()).append("\"/>\n");
+        }
+
+        return out.toString();
+    }
+
     /**
      * Class representing a list of pathways.
      * Encapsulates information about the offset of the pathway list in the scene
@@ -182,13 +446,26 @@ public class Z64Scene implements Iterable<RomFile> {
      * Parses and processes pathway data from the scene data file.
      * Identifies pathway headers in the scene data, extracts pathway offsets,
      * and constructs a list of PathwayList objects based on the parsed data.
+     *
+     * @throws SceneParseException if a pathway list is outside of the scene file.
      */
     private void getPathways() {
         byte[] sceneData = sceneRomFile.getData();
+        Set<Integer> pathwayListOffsets = new HashSet<>();
 
         for (Integer header : sceneHeaderOffsetList) {
             int pathwayHeaderCmdOffset = getHeaderCmdOffset(header, DecompEnums.Z64SceneCommand.PATH_LIST.ordinal());
-            int pathwayListOffset = segAddrToOffset(sceneData, pathwayHeaderCmdOffset + 4);
+            if (pathwayHeaderCmdOffset < 0) {
+                continue;
+            }
+            int pathwayListOffset = readFilePointer(sceneRomFile, pathwayHeaderCmdOffset + 4,
+                    Globals.SCENE_SEGMENT_NUM, 8, "Pathway list");
+
+            // Headers may share the same pathway list
+            if (pathwayListOffsets.contains(pathwayListOffset)) {
+                continue;
+            }
+            pathwayListOffsets.add(pathwayListOffset);
 
             // Add pathway to list
             pathways.add(new PathwayList(pathwayListOffset));
@@ -198,7 +475,7 @@ public class Z64Scene implements Iterable<RomFile> {
             int count = 0;
             int tempOffset = path.getOffset();
 
-            while (sceneData[tempOffset] != 0 && sceneData[tempOffset + 1] == 0 && sceneData[tempOffset + 2] == 0 && sceneData[tempOffset + 3] == 0 &&
+            while (tempOffset + 8 <= sceneData.length && sceneData[tempOffset] != 0 && sceneData[tempOffset + 1] == 0 && sceneData[tempOffset + 2] == 0 && sceneData[tempOffset + 3] == 0 &&
                     sceneData[tempOffset + 4] == Globals.SCENE_SEGMENT_NUM) {
                 tempOffset += 8;
                 count++;
@@ -211,9 +488,371 @@ public class Z64Scene implements Iterable<RomFile> {
      * Adds a new room to the scene.
      *
      * @param room The ROM file representing the room to add.
+     * @throws SceneParseException if the room file is malformed.
      */
     public void addRoom(RomFile room) {
+        Set<Integer> headers = getHeaderOffsets(room, Globals.ROOM_SEGMENT_NUM);
+        Z64DisplayListScanner scanner = scanRoomDisplayLists(room, headers);
+
         roomRomFiles.add(room);
+        roomHeaderOffsetLists.add(headers);
+        roomDisplayLists.add(scanner);
+        sceneDisplayLists = null;
+    }
+
+    /**
+     * Scans the display lists of every room shape in a room's headers.
+     *
+     * @param room    The room file.
+     * @param headers The header offsets within the room.
+     * @return The scanner holding the display lists, textures and vertices found.
+     * @throws SceneParseException if a room shape is outside of the room file.
+     */
+    private Z64DisplayListScanner scanRoomDisplayLists(RomFile room, Set<Integer> headers) {
+        byte[] data = room.getData();
+        Z64DisplayListScanner scanner = new Z64DisplayListScanner(data, Globals.ROOM_SEGMENT_NUM);
+
+        for (Integer header : headers) {
+            int roomShapeCmdOffset = getHeaderCmdOffset(data, header, DecompEnums.Z64SceneCommand.ROOM_SHAPE.ordinal());
+            if (roomShapeCmdOffset < 0) {
+                continue;
+            }
+
+            int roomShapeOffset = readFilePointer(room, roomShapeCmdOffset + 4, Globals.ROOM_SEGMENT_NUM, 8,
+                    "Room shape");
+            int roomShapeType = data[roomShapeOffset] & 0xFF;
+            int numEntries = data[roomShapeOffset + 1] & 0xFF;
+
+            // Image shapes always have a single entry
+            int entrySize = (roomShapeType == 2) ? 16 : 8;
+            if (roomShapeType == 1) {
+                numEntries = 1;
+            }
+            if (numEntries == 0 || roomShapeType > 2) {
+                continue;
+            }
+            int entriesOffset = readFilePointer(room, roomShapeOffset + 4, Globals.ROOM_SEGMENT_NUM,
+                    numEntries * entrySize, "Room shape entries");
+
+            switch (roomShapeType) {
+                case 0:
+                    // Normal: list of opaque and translucent display list pairs
+                    for (int i = 0; i < numEntries; i++) {
+                        scanner.scan(Globals.readIntFromByteArray(data, entriesOffset + i * 8));
+                        scanner.scan(Globals.readIntFromByteArray(data, entriesOffset + i * 8 + 4));
+                    }
+                    break;
+                case 1:
+                    // Image: a single opaque and translucent display list pair
+                    scanner.scan(Globals.readIntFromByteArray(data, entriesOffset));
+                    scanner.scan(Globals.readIntFromByteArray(data, entriesOffset + 4));
+                    break;
+                case 2:
+                    // Cull: bounding spheres followed by display list pairs
+                    for (int i = 0; i < numEntries; i++) {
+                        scanner.scan(Globals.readIntFromByteArray(data, entriesOffset + i * 16 + 8));
+                        scanner.scan(Globals.readIntFromByteArray(data, entriesOffset + i * 16 + 12));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return scanner;
+    }
+
+    /**
+     * Gets the display lists, textures and vertices in the scene file that the rooms reference.
+     *
+     * @return The scanner holding everything the rooms use from the scene file.
+     */
+    private Z64DisplayListScanner getSceneDisplayLists() {
+        if (sceneDisplayLists != null) {
+            return sceneDisplayLists;
+        }
+
+        sceneDisplayLists = new Z64DisplayListScanner(sceneRomFile.getData(), Globals.SCENE_SEGMENT_NUM);
+
+        for (Z64DisplayListScanner room : roomDisplayLists) {
+            for (Integer segmentAddr : room.getExternalDisplayLists()) {
+                if ((segmentAddr >>> 24) == Globals.SCENE_SEGMENT_NUM) {
+                    sceneDisplayLists.scan(segmentAddr);
+                }
+            }
+
+            ArrayList<Integer> vertices = room.getExternalVertices();
+            for (int i = 0; i < vertices.size(); i += 2) {
+                if ((vertices.get(i) >>> 24) == Globals.SCENE_SEGMENT_NUM) {
+                    sceneDisplayLists.addVertices(vertices.get(i) & 0xFFFFFF, vertices.get(i + 1));
+                }
+            }
+
+            for (Z64DisplayListScanner.Texture texture : room.getExternalTextures()) {
+                if ((texture.getOffset() >>> 24) == Globals.SCENE_SEGMENT_NUM) {
+                    sceneDisplayLists.addTexture(new Z64DisplayListScanner.Texture(texture.getOffset() & 0xFFFFFF,
+                            texture.getFmt(), texture.getSiz(), texture.getWidth(), texture.getHeight(), -1,
+                            texture.isPalette()));
+                }
+            }
+        }
+
+        return sceneDisplayLists;
+    }
+
+    /**
+     * Adds the textures of the scene and every room to a texture index.
+     *
+     * @param index The texture index.
+     */
+    public void addTextures(Z64TextureIndex index) {
+        index.addFile(sceneRomFile.getName(), sceneRomFile.getData(), getSceneDisplayLists());
+        for (int i = 0; i < roomRomFiles.size(); i++) {
+            index.addFile(roomRomFiles.get(i).getName(), roomRomFiles.get(i).getData(), roomDisplayLists.get(i));
+        }
+    }
+
+    /**
+     * Removes redundant state commands from the display lists of every room.
+     * Display lists keep their starting offsets, so the room shape pointers stay valid.
+     *
+     * @return The number of commands removed.
+     */
+    public int optimizeRoomDisplayLists() {
+        int removed = 0;
+
+        for (int i = 0; i < roomRomFiles.size(); i++) {
+            byte[] roomData = roomRomFiles.get(i).getData();
+            removed += new Z64DisplayListOptimizer(roomData, roomDisplayLists.get(i)).optimize();
+
+            // Commands have moved, so find the texture references again
+            roomDisplayLists.set(i, scanRoomDisplayLists(roomRomFiles.get(i), roomHeaderOffsetLists.get(i)));
+        }
+        sceneDisplayLists = null;
+
+        return removed;
+    }
+
+    /**
+     * Reports the textures of the scene and rooms that could be stored in a smaller format.
+     * Only room textures are converted, since the commands loading scene textures are in the rooms.
+     *
+     * @param convert True to convert room textures where possible, false to only report them.
+     */
+    public void analyzeTextures(boolean convert) {
+        Z64TextureAnalyzer.analyzeFile(sceneRomFile.getName(), sceneRomFile.getData(), getSceneDisplayLists(), false);
+
+        for (int i = 0; i < roomRomFiles.size(); i++) {
+            byte[] roomData = roomRomFiles.get(i).getData();
+            if (Z64TextureAnalyzer.analyzeFile(roomRomFiles.get(i).getName(), roomData, roomDisplayLists.get(i),
+                    convert) > 0) {
+                // Converted textures are smaller, so find them again
+                roomDisplayLists.set(i, scanRoomDisplayLists(roomRomFiles.get(i), roomHeaderOffsetLists.get(i)));
+            }
+        }
+        sceneDisplayLists = null;
+    }
+
+    /**
+     * Moves textures stored in more than one room into the scene file, which is loaded alongside every room.
+     * The G_SETTIMG commands of the rooms are rewritten to point at the scene's copy, so the room copies are no
+     * longer referenced and are left out of the generated XML.
+     * Textures that the scene file already contains are shared without being copied again.
+     * Color-indexed textures and palettes are left in the rooms, since the XML of a moved texture could only name
+     * the palette of one room.
+     * <p>
+     * The room copies stay in the room files, so the patch ROM grows by the bytes added to the scene. Only the
+     * assets extracted from the XML get smaller.
+     *
+     * @return The number of bytes added to the scene file, and the number of room texture bytes that are no longer
+     * referenced.
+     */
+    public int[] moveSharedRoomTextures() {
+        // Gather every copy of each texture, keyed by its contents
+        Map<ByteRange, ArrayList<int[]>> copies = new LinkedHashMap<>();
+        for (int i = 0; i < roomRomFiles.size(); i++) {
+            byte[] roomData = roomRomFiles.get(i).getData();
+            for (Z64DisplayListScanner.Texture texture : roomDisplayLists.get(i).getTextures()) {
+                if (texture.isPalette() || texture.getFmt() == Z64DisplayListScanner.G_IM_FMT_CI) {
+                    continue;
+                }
+                ByteRange payload = new ByteRange(roomData, texture.getOffset(),
+                        texture.getOffset() + texture.getSize());
+                copies.computeIfAbsent(payload, k -> new ArrayList<>()).add(new int[]{i, texture.getOffset()});
+            }
+        }
+
+        // Textures the scene file already holds can be used as-is
+        byte[] sceneData = sceneRomFile.getData();
+        Map<ByteRange, Integer> sceneTextures = new LinkedHashMap<>();
+        for (Z64DisplayListScanner.Texture texture : getSceneDisplayLists().getTextures()) {
+            sceneTextures.putIfAbsent(new ByteRange(sceneData, texture.getOffset(),
+                    texture.getOffset() + texture.getSize()), texture.getOffset());
+        }
+
+        ByteArrayOutputStream appended = new ByteArrayOutputStream();
+        int appendBase = Globals.alignTo(sceneData.length, 8);
+        int unreferencedBytes = 0;
+
+        for (Map.Entry<ByteRange, ArrayList<int[]>> entry : copies.entrySet()) {
+            ByteRange payload = entry.getKey();
+            Integer sceneOffset = sceneTextures.get(payload);
+
+            // Only copies loaded by plain G_SETTIMG commands can be moved
+            ArrayList<int[]> roomCopies = new ArrayList<>();
+            for (int[] copy : entry.getValue()) {
+                if (canRedirectTexture(copy[0], copy[1])) {
+                    roomCopies.add(copy);
+                }
+            }
+
+            if (roomCopies.isEmpty() || (sceneOffset == null && roomCopies.size() < 2)) {
+                continue;
+            }
+
+            if (sceneOffset == null) {
+                sceneOffset = appendBase + appended.size();
+                byte[] textureData = new byte[Globals.alignTo(payload.getSize(), 8)];
+                payload.copyTo(textureData, 0);
+                appended.write(textureData, 0, textureData.length);
+                sceneTextures.put(payload, sceneOffset);
+            }
+
+            for (int[] copy : roomCopies) {
+                redirectTexture(copy[0], copy[1], (Globals.SCENE_SEGMENT_NUM << 24) | sceneOffset);
+                unreferencedBytes += payload.getSize();
+            }
+        }
+
+        if (unreferencedBytes == 0) {
+            return new int[]{0, 0};
+        }
+
+        // Append the shared textures to the scene file
+        int addedBytes = 0;
+        if (appended.size() > 0) {
+            byte[] newSceneData = Arrays.copyOf(sceneData, appendBase + appended.size());
+            System.arraycopy(appended.toByteArray(), 0, newSceneData, appendBase, appended.size());
+            sceneRomFile = new RomFile(newSceneData, sceneRomFile.getName());
+            addedBytes = newSceneData.length - sceneData.length;
+        }
+
+        // Rescan, so the room copies are no longer listed and the scene's copies are
+        for (int i = 0; i < roomRomFiles.size(); i++) {
+            roomDisplayLists.set(i, scanRoomDisplayLists(roomRomFiles.get(i), roomHeaderOffsetLists.get(i)));
+        }
+        sceneDisplayLists = null;
+
+        return new int[]{addedBytes, unreferencedBytes};
+    }
+
+    /**
+     * Checks if every G_SETTIMG command loading a room texture loads exactly the start of the texture.
+     *
+     * @param roomIndex Index of the room.
+     * @param offset    Offset of the texture within the room.
+     * @return True if the texture can be moved, otherwise false.
+     */
+    private boolean canRedirectTexture(int roomIndex, int offset) {
+        byte[] roomData = roomRomFiles.get(roomIndex).getData();
+        ArrayList<Integer> refs = roomDisplayLists.get(roomIndex).getTextureReferences(offset);
+
+        if (refs.isEmpty()) {
+            return false;
+        }
+        for (Integer cmdOffset : refs) {
+            if (cmdOffset < 0 || Globals.readIntFromByteArray(roomData, cmdOffset + 4) !=
+                    ((Globals.ROOM_SEGMENT_NUM << 24) | offset)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Points every G_SETTIMG command loading a room texture at a new segment address.
+     *
+     * @param roomIndex   Index of the room.
+     * @param offset      Offset of the texture within the room.
+     * @param segmentAddr The new segment address of the texture.
+     */
+    private void redirectTexture(int roomIndex, int offset, int segmentAddr) {
+        byte[] roomData = roomRomFiles.get(roomIndex).getData();
+
+        for (Integer cmdOffset : roomDisplayLists.get(roomIndex).getTextureReferences(offset)) {
+            Globals.writeIntToByteArray(roomData, cmdOffset + 4, segmentAddr);
+        }
+    }
+
+    /**
+     * Gets the IDs of every object listed by the OBJECT_LIST commands of the scene and room headers,
+     * including all alternate headers.
+     *
+     * @return The set of object IDs used by the scene.
+     */
+    public Set<Integer> getObjectIds() {
+        Set<Integer> out = new HashSet<>();
+
+        addObjectIds(sceneRomFile.getData(), sceneHeaderOffsetList, out);
+        for (int i = 0; i < roomRomFiles.size(); i++) {
+            addObjectIds(roomRomFiles.get(i).getData(), roomHeaderOffsetLists.get(i), out);
+        }
+
+        return out;
+    }
+
+    /**
+     * Adds the actors, transition actors and objects listed by every scene and room header to a usage index.
+     *
+     * @param index The usage index.
+     */
+    public void addUsage(Z64UsageIndex index) {
+        addHeaderUsage(index, sceneRomFile, sceneHeaderOffsetList);
+        for (int i = 0; i < roomRomFiles.size(); i++) {
+            addHeaderUsage(index, roomRomFiles.get(i), roomHeaderOffsetLists.get(i));
+        }
+    }
+
+    /**
+     * Adds the actors, transition actors and objects listed by the headers of a file to a usage index.
+     *
+     * @param index   The usage index.
+     * @param file    The scene or room file.
+     * @param headers The header offsets within the file.
+     */
+    private void addHeaderUsage(Z64UsageIndex index, RomFile file, Set<Integer> headers) {
+        byte[] data = file.getData();
+
+        for (Integer header : new TreeSet<>(headers)) {
+            int[] cmdOffsets = {
+                    getHeaderCmdOffset(data, header, DecompEnums.Z64SceneCommand.ACTOR_LIST.ordinal()),
+                    getHeaderCmdOffset(data, header, DecompEnums.Z64SceneCommand.TRANSITION_ACTOR_LIST.ordinal()),
+                    getHeaderCmdOffset(data, header, DecompEnums.Z64SceneCommand.OBJECT_LIST.ordinal()),
+            };
+            index.addHeader(file.getName(), data, header, cmdOffsets);
+        }
+    }
+
+    /**
+     * Adds the object IDs listed by the OBJECT_LIST command of each header to a set.
+     *
+     * @param data    The scene or room data.
+     * @param headers The header offsets within the data.
+     * @param out     The set the object IDs are added to.
+     */
+    private void addObjectIds(byte[] data, Set<Integer> headers, Set<Integer> out) {
+        for (Integer header : headers) {
+            int objectListCmdOffset = getHeaderCmdOffset(data, header, DecompEnums.Z64SceneCommand.OBJECT_LIST.ordinal());
+            if (objectListCmdOffset < 0) {
+                continue;
+            }
+
+            int count = data[objectListCmdOffset + 1] & 0xFF;
+            int objectListOffset = segAddrToOffset(data, objectListCmdOffset + 4);
+            for (int i = 0; i < count; i++) {
+                out.add(Globals.readShortFromByteArray(data, objectListOffset + i * 2));
+            }
+        }
     }
 
     /**
@@ -328,11 +967,12 @@ public class Z64Scene implements Iterable<RomFile> {
                 Files.newOutputStream(outXmlFile.toPath()), StandardCharsets.UTF_8))) {
             // Write the scene XML string, including any extra nodes like CamData
             writer.write("<Root>\n");
-            writer.write(sceneXmlString(getScene(), getAllPathwayNodes()));
+            writer.write(sceneXmlString(getScene(), getAllPathwayNodes() + getAllCutsceneNodes() +
+                    getSceneDisplayLists().getXmlNodes(name)));
 
-            // Write the room XML string
+            // Write the room XML string, including the display lists, textures and vertices found in the room
             for (int i = 0; i < getNumRooms(); i++) {
-                writer.write(roomXmlString(getRoom(i), ""));
+                writer.write(roomXmlString(getRoom(i), roomDisplayLists.get(i).getXmlNodes(getRoom(i).getName())));
             }
             writer.write("</Root>\n");
         } catch (IOException e) {
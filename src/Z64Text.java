@@ -3,9 +3,21 @@
  * Class representing Zelda 64 text files
  */
 
-import java.io.File;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * PAL Debug ROM text table locations
@@ -22,80 +34,699 @@ import java.util.Iterator;
 
 public class Z64Text implements Iterable<RomFile> {
     private final ArrayList<RomFile> _textRomFiles = new ArrayList<>();
+    private final Map<String, Z64MessageTable> messageTables = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> messageData = new ConcurrentHashMap<>();
+    private final Map<String, SourceTextIds> pointerTableSourceIds = new ConcurrentHashMap<>();
+
+    /**
+     * Text IDs read from a message source file whose table only holds segment addresses.
+     * The IDs aren't stored in the table, so they are checked against the NES table once every language is loaded.
+     */
+    private static class SourceTextIds {
+        private final String fileName;
+        private final ArrayList<Integer> textIds = new ArrayList<>();
+        private final ArrayList<Integer> lineNums = new ArrayList<>();
+
+        /**
+         * Constructs an empty SourceTextIds.
+         *
+         * @param fileName The name of the message source file, used in error messages.
+         */
+        SourceTextIds(String fileName) {
+            this.fileName = fileName;
+        }
+    }
 
     /**
      * Constructor for the Z64Text class.
+     * Loads, validates and packs the text, adding the tables to code.
      *
      * @param textFiles List of text files to process.
      * @param code      Z64Code object for managing code arrays.
      */
-    public Z64Text(ArrayList<File> textFiles, Z64Code code) {
-        // Text tables
-        for (String tableName : Globals.TEXT_TABLE_NAMES) {
-            for (File f : textFiles) {
-                if (f.getName().equals(tableName)) {
-                    byte[] tableData = Globals.fileToByteArr(f);
+    public Z64Text(ArrayList<RomFile> textFiles, Z64Code code) {
+        this(textFiles);
 
-                    // Attempt to fix Ocarina Text Editor tables (only affects the NES table)
-                    if (tableName.equals(Globals.CODE_TABLE_TEXT_NES_NAME)) {
-                        patchMessageTable(tableData);
-                    }
+        // Make sure no malformed message makes it into the output
+        validateMessages();
 
-                    // Append table to code
-                    code.addArray(tableData, tableName);
-                }
+        // Deduplicate each language's data against its own table
+        Arrays.stream(Globals.TEXT_BIN_NAMES).parallel()
+                .filter(this::hasMessages)
+                .forEach(binName -> messageData.put(binName, deduplicateMessages(messageData.get(binName),
+                        messageTables.get(getTableName(binName)), binName)));
+
+        // Text tables, appended to code in a fixed order
+        for (String tableName : Globals.TEXT_TABLE_NAMES) {
+            Z64MessageTable table = messageTables.get(tableName);
+            if (table != null) {
+                code.addArray(table.toByteArray(), tableName);
             }
         }
 
         // Text binaries
         for (String binName : Globals.TEXT_BIN_NAMES) {
-            for (File f : textFiles) {
-                if (f.getName().equals(binName)) {
-                    _textRomFiles.add(new RomFile(f));
+            byte[] data = messageData.get(binName);
+            if (data != null) {
+                _textRomFiles.add(new RomFile(data, binName));
+            }
+        }
+    }
+
+    /**
+     * Constructor for the Z64Text class.
+     * Only loads the text, without validating it or packing it into any files.
+     *
+     * @param textFiles List of text files to load.
+     */
+    public Z64Text(ArrayList<RomFile> textFiles) {
+        // Index the input files by name
+        Map<String, RomFile> filesByName = new HashMap<>();
+        for (RomFile f : textFiles) {
+            filesByName.put(f.getName(), f);
+        }
+
+        // Load every language's table and data in parallel
+        IntStream.range(0, Globals.TEXT_BIN_NAMES.length).parallel()
+                .forEach(i -> loadLanguage(Globals.TEXT_BIN_NAMES[i], Globals.TEXT_TABLE_NAMES[i], filesByName));
+
+        // German and French messages are matched to text IDs by their position in the NES table
+        checkPointerTableSourceIds();
+
+        // Attempt to fix Ocarina Text Editor tables (only affects the NES table)
+        patchMessageTables();
+    }
+
+    /**
+     * Loads the table and data of a single language.
+     * A message source file takes priority over the binary table and data.
+     *
+     * @param binName     The name of the message data file.
+     * @param tableName   The name of the entry table.
+     * @param filesByName The input files indexed by name.
+     */
+    private void loadLanguage(String binName, String tableName, Map<String, RomFile> filesByName) {
+        RomFile sourceFile = filesByName.get(binName + Globals.TEXT_SOURCE_SUFFIX);
+
+        if (sourceFile != null) {
+            encodeMessageSource(sourceFile, binName, tableName);
+            return;
+        }
+
+        RomFile tableFile = filesByName.get(tableName);
+        if (tableFile != null) {
+            messageTables.put(tableName, parseMessageTable(tableFile, tableName));
+        }
+
+        RomFile binFile = filesByName.get(binName);
+        if (binFile != null) {
+            messageData.put(binName, binFile.getData());
+        }
+    }
+
+    /**
+     * Checks that the text IDs of every German and French message source file line up with the NES table.
+     * Their tables only hold segment addresses, so each line must have the text ID of the NES entry at the same
+     * position, and there must be a line for every NES message.
+     *
+     * @throws RuntimeException if a text ID doesn't match, or the number of messages differs, naming the file and
+     *                          line.
+     */
+    private void checkPointerTableSourceIds() {
+        for (SourceTextIds source : pointerTableSourceIds.values()) {
+            Z64MessageTable nesTable = messageTables.get(Globals.CODE_TABLE_TEXT_NES_NAME);
+            if (nesTable == null) {
+                throw new RuntimeException(source.fileName + ": the NES message table is needed to match its text " +
+                        "IDs, but it was not provided");
+            }
+
+            for (int i = 0; i < source.textIds.size(); i++) {
+                int textId = source.textIds.get(i);
+                if (i >= nesTable.size() || nesTable.getTextId(i) != textId) {
+                    String expected = (i < nesTable.size()) ?
+                            "the NES table has 0x" + Integer.toHexString(nesTable.getTextId(i)).toUpperCase() :
+                            "the NES table has no more messages";
+                    throw new RuntimeException(source.fileName + " line " + source.lineNums.get(i) + ": text ID 0x" +
+                            Integer.toHexString(textId).toUpperCase() + " is message " + i + ", but " + expected);
                 }
             }
+
+            // The terminator doesn't need a line of its own
+            int numNesMessages = 0;
+            while (numNesMessages < nesTable.size() &&
+                    nesTable.getTextId(numNesMessages) != Z64MessageTable.TEXT_ID_END) {
+                numNesMessages++;
+            }
+            if (source.textIds.size() < numNesMessages) {
+                throw new RuntimeException(source.fileName + " has " + source.textIds.size() +
+                        " messages, but the NES table has " + numNesMessages + " (missing text ID 0x" +
+                        Integer.toHexString(nesTable.getTextId(source.textIds.size())).toUpperCase() + ")");
+            }
         }
     }
 
     /**
-     * Fixes message tables that were generated by Ocarina Text Editor.
+     * Checks if both the data file and the entry table of a language were loaded.
+     *
+     * @param binName The name of the message data file.
+     * @return True if the language's messages can be read, otherwise false.
+     */
+    private boolean hasMessages(String binName) {
+        return messageData.containsKey(binName) && messageTables.containsKey(getTableName(binName));
+    }
+
+    /**
+     * Checks if a message table only holds segment addresses.
+     *
+     * @param tableName The name of the table.
+     * @return True for the German and French tables, otherwise false.
+     */
+    private static boolean isPointerTable(String tableName) {
+        return tableName.equals(Globals.CODE_TABLE_TEXT_GER_NAME) || tableName.equals(Globals.CODE_TABLE_TEXT_FRA_NAME);
+    }
+
+    /**
+     * Loads and parses a message table file.
      *
-     * @param table Byte array representing the message table to patch.
+     * @param f         The table file.
+     * @param tableName The name of the table.
+     * @return The parsed message table.
+     */
+    private static Z64MessageTable parseMessageTable(RomFile f, String tableName) {
+        byte[] tableData = f.getData();
+
+        if (isPointerTable(tableName)) {
+            return Z64MessageTable.parsePointerTable(tableData, tableName);
+        }
+        return Z64MessageTable.parseEntryTable(tableData, tableName);
+    }
+
+    /**
+     * Fixes message tables that were generated by Ocarina Text Editor.
+     * The German and French tables are indexed in parallel with the NES table, so they are reordered to match.
      */
-    private void patchMessageTable(byte[] table) {
+    private void patchMessageTables() {
+        Z64MessageTable nesTable = messageTables.get(Globals.CODE_TABLE_TEXT_NES_NAME);
+        if (nesTable == null) {
+            return;
+        }
+
         // Check if the first message in the table is 0xFFFC
         // Ocarina Text Editor produces tables that work this way, but ZAPDTR will not work with it
-        if (!(((((int) table[0]) & 0xFF) == 0xFF) && ((((int) table[1]) & 0xFF) == 0xFC))) {
+        int[] order = nesTable.fixOcarinaTextEditorOrder();
+        if (order == null) {
             return;
         }
 
         System.out.println("    Patching message table...");
 
-        // Make a copy of the table entry for 0xFFFC
-        byte[] msgEntryFFFC = new byte[8];
-        System.arraycopy(table, 0, msgEntryFFFC, 0, msgEntryFFFC.length);
+        for (String tableName : new String[]{Globals.CODE_TABLE_TEXT_GER_NAME, Globals.CODE_TABLE_TEXT_FRA_NAME}) {
+            Z64MessageTable langTable = messageTables.get(tableName);
+            if (langTable == null) {
+                continue;
+            }
+
+            try {
+                langTable.applyPermutation(order);
+            } catch (IllegalArgumentException e) {
+                System.out.println(OutputHelpers.YELLOW + "    Could not reorder " + tableName +
+                        " to match the NES table: " + e.getMessage() + OutputHelpers.RESET);
+            }
+        }
+    }
+
+    /**
+     * Checks every message of every language for malformed control codes, in parallel.
+     *
+     * @throws RuntimeException if any message is malformed, listing the offending text IDs.
+     */
+    public void validateMessages() {
+        // Flatten every language's entries into one list, so they are all split across threads together
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>();
+        for (String binName : Globals.TEXT_BIN_NAMES) {
+            if (hasMessages(binName)) {
+                int size = messageTables.get(getTableName(binName)).size();
+                for (int i = 0; i < size; i++) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(binName, i));
+                }
+            }
+        }
+
+        List<String> errors = entries.parallelStream()
+                .map(e -> validateMessage(e.getKey(), messageTables.get(getTableName(e.getKey())), e.getValue()))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+
+        if (errors.isEmpty()) {
+            return;
+        }
+
+        for (String error : errors) {
+            System.out.println(OutputHelpers.RED + "    " + error + OutputHelpers.RESET);
+        }
+        throw new RuntimeException(errors.size() + " malformed message(s) found! Fix them before porting.");
+    }
+
+    /**
+     * Checks a single table entry and the message it points to.
+     *
+     * @param binName The name of the message data file.
+     * @param table   The entry table pointing into the file.
+     * @param index   Index of the entry in the table.
+     * @return A description of the problem, or null if the message is valid.
+     */
+    private String validateMessage(String binName, Z64MessageTable table, int index) {
+        Z64MessageTable idTable = table.isPointerOnly() ? messageTables.get(Globals.CODE_TABLE_TEXT_NES_NAME) : table;
+        int textId = (idTable != null && index < idTable.size()) ? idTable.getTextId(index) : -1;
+
+        // The terminator doesn't point to a message
+        if (textId == Z64MessageTable.TEXT_ID_END) {
+            return null;
+        }
+
+        int segmentAddr = table.getSegmentAddr(index);
+        String error;
+        if ((segmentAddr >>> 24) != Globals.TEXT_SEGMENT_NUM) {
+            error = "segment address 0x" + Integer.toHexString(segmentAddr) + " is not in segment " +
+                    Globals.TEXT_SEGMENT_NUM;
+        } else {
+            byte[] data = messageData.get(binName);
+            error = Z64MessageCodec.validate(data, segmentAddr & 0xFFFFFF, data.length);
+        }
+
+        if (error == null) {
+            return null;
+        }
+        String id = (textId < 0) ? ("entry " + index) : ("message 0x" + Integer.toHexString(textId).toUpperCase());
+        return binName + " " + id + ": " + error;
+    }
+
+    /**
+     * Gets the name of the entry table that points into a message data file.
+     *
+     * @param binName The name of the message data file.
+     * @return The name of the matching entry table.
+     */
+    private static String getTableName(String binName) {
+        return Globals.TEXT_TABLE_NAMES[Arrays.asList(Globals.TEXT_BIN_NAMES).indexOf(binName)];
+    }
+
+    /**
+     * Stores identical messages only once, and rewrites the table to point at the remaining copy.
+     * Each message spans from its offset to the next message's offset, so padding is kept intact.
+     * Messages can only be shared within a file, as each language is loaded into the same segment.
+     *
+     * @param data    The message data file.
+     * @param table   The entry table pointing into the file.
+     * @param binName The name of the message data file.
+     * @return The deduplicated message data.
+     */
+    private static byte[] deduplicateMessages(byte[] data, Z64MessageTable table, String binName) {
+        // Collect the distinct message offsets that point into this file
+        int[] offsets = new int[table.size()];
+        int numOffsets = 0;
+        for (int i = 0; i < table.size(); i++) {
+            int segmentAddr = table.getSegmentAddr(i);
+            int offset = segmentAddr & 0xFFFFFF;
+            if ((segmentAddr >>> 24) == Globals.TEXT_SEGMENT_NUM && offset < data.length) {
+                offsets[numOffsets++] = offset;
+            }
+        }
+        if (numOffsets == 0) {
+            return data;
+        }
+
+        offsets = Arrays.copyOf(offsets, numOffsets);
+        Arrays.sort(offsets);
+        int numDistinct = 0;
+        for (int i = 0; i < numOffsets; i++) {
+            if (i == 0 || offsets[i] != offsets[i - 1]) {
+                offsets[numDistinct++] = offsets[i];
+            }
+        }
+
+        // Anything before the first message is kept as-is
+        byte[] out = new byte[data.length];
+        int outSize = offsets[0];
+        System.arraycopy(data, 0, out, 0, outSize);
+
+        // Copy each unique message body, remembering where every old offset ended up
+        Map<ByteRange, Integer> uniqueBodies = new HashMap<>();
+        int[] newOffsets = new int[numDistinct];
+        for (int i = 0; i < numDistinct; i++) {
+            int start = offsets[i];
+            int end = (i + 1 < numDistinct) ? offsets[i + 1] : data.length;
+            ByteRange body = new ByteRange(data, start, end);
+
+            Integer existing = uniqueBodies.get(body);
+            if (existing != null) {
+                newOffsets[i] = existing;
+            } else {
+                System.arraycopy(data, start, out, outSize, end - start);
+                uniqueBodies.put(body, outSize);
+                newOffsets[i] = outSize;
+                outSize += end - start;
+            }
+        }
+
+        if (outSize == data.length) {
+            return data;
+        }
+
+        // Rewrite the table entries
+        for (int i = 0; i < table.size(); i++) {
+            int segmentAddr = table.getSegmentAddr(i);
+            int offset = segmentAddr & 0xFFFFFF;
+            if ((segmentAddr >>> 24) == Globals.TEXT_SEGMENT_NUM && offset < data.length) {
+                int newOffset = newOffsets[Arrays.binarySearch(offsets, 0, numDistinct, offset)];
+                table.setSegmentAddr(i, (Globals.TEXT_SEGMENT_NUM << 24) | newOffset);
+            }
+        }
+
+        System.out.println("    Deduplicated " + (numDistinct - uniqueBodies.size()) + " messages in " + binName +
+                " (0x" + Integer.toHexString(data.length) + " -> 0x" + Integer.toHexString(outSize) + " bytes)");
+
+        return Arrays.copyOf(out, outSize);
+    }
+
+    /**
+     * Encodes a message source file into a message table and data file.
+     * Each line holds a text ID and box type/position in hex, followed by the message text.
+     * German and French tables have no text IDs of their own, so their IDs are kept to be checked against the NES
+     * table by checkPointerTableSourceIds().
+     *
+     * @param sourceFile The message source file.
+     * @param binName    The name of the message data file to generate.
+     * @param tableName  The name of the entry table to generate.
+     * @throws RuntimeException if the file can't be read or contains a malformed line.
+     */
+    private void encodeMessageSource(RomFile sourceFile, String binName, String tableName) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        boolean pointerTable = isPointerTable(tableName);
+        SourceTextIds sourceIds = new SourceTextIds(sourceFile.getName());
+        int lineNum = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(sourceFile.getData()), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNum++;
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                int idEnd = line.indexOf(' ');
+                int typePosEnd = (idEnd < 0) ? -1 : line.indexOf(' ', idEnd + 1);
+                if (typePosEnd < 0) {
+                    throw new IllegalArgumentException("expected \"<text id> <type/pos> <text>\"");
+                }
+                int textId = Integer.parseInt(line.substring(0, idEnd), 16);
+                int typePos = Integer.parseInt(line.substring(idEnd + 1, typePosEnd), 16);
+                int segmentAddr = (Globals.TEXT_SEGMENT_NUM << 24) | data.size();
+
+                Z64MessageCodec.encode(line.substring(typePosEnd + 1), data);
+
+                if (pointerTable) {
+                    sourceIds.textIds.add(textId);
+                    sourceIds.lineNums.add(lineNum);
+                } else {
+                    table.write(new byte[]{(byte) (textId >> 8), (byte) textId, (byte) typePos, 0});
+                }
+                table.write(new byte[]{(byte) (segmentAddr >> 24), (byte) (segmentAddr >> 16),
+                        (byte) (segmentAddr >> 8), (byte) segmentAddr});
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading file: " + sourceFile.getName(), e);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(sourceFile.getName() + " line " + lineNum + ": " + e.getMessage(), e);
+        }
+
+        if (pointerTable) {
+            messageTables.put(tableName, Z64MessageTable.parsePointerTable(table.toByteArray(), tableName));
+            pointerTableSourceIds.put(tableName, sourceIds);
+        } else {
+            // Terminate the table
+            final byte[] msgEntryFFFF = {-1, -1, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00};
+            table.write(msgEntryFFFF, 0, msgEntryFFFF.length);
+            messageTables.put(tableName, Z64MessageTable.parseEntryTable(table.toByteArray(), tableName));
+        }
+        messageData.put(binName, data.toByteArray());
+    }
+
+    /**
+     * Writes every language's messages to a message source file in the output directory.
+     * The files can be edited and placed in an input directory in place of the binary table and data.
+     *
+     * @param outPath The path to the output directory.
+     * @throws RuntimeException if an I/O error occurs during file writing.
+     */
+    public void exportMessages(String outPath) {
+        Arrays.stream(Globals.TEXT_BIN_NAMES).parallel()
+                .filter(this::hasMessages)
+                .forEach(binName -> exportMessages(outPath, binName));
+    }
+
+    /**
+     * Writes a single language's messages to a message source file.
+     *
+     * @param outPath The path to the output directory.
+     * @param binName The name of the message data file.
+     * @throws RuntimeException if an I/O error occurs during file writing.
+     */
+    private void exportMessages(String outPath, String binName) {
+        File outFile = new File(outPath + "/" + binName + Globals.TEXT_SOURCE_SUFFIX);
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(outFile.toPath()), StandardCharsets.UTF_8))) {
+            writer.write("# " + binName + "\n");
+            for (String line : messages(binName)) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decodes the messages of a language lazily, in table order.
+     * Each message is returned as a single line of the message source format.
+     *
+     * @param binName The name of the message data file.
+     * @return An iterable over the decoded messages.
+     */
+    public Iterable<String> messages(String binName) {
+        return () -> new MessageIterator(binName);
+    }
+
+    /**
+     * Iterator decoding one message per step.
+     * The German and French tables take their text IDs and box types from the NES table.
+     */
+    private class MessageIterator implements Iterator<String> {
+        private final byte[] data;
+        private final Z64MessageTable table;
+        private final Z64MessageTable idTable;
+        private final StringBuilder line = new StringBuilder();
+        private int index = -1;
+
+        /**
+         * Constructs a MessageIterator for a single language.
+         *
+         * @param binName The name of the message data file.
+         */
+        public MessageIterator(String binName) {
+            data = messageData.get(binName);
+            table = messageTables.get(getTableName(binName));
+            idTable = table.isPointerOnly() ? messageTables.get(Globals.CODE_TABLE_TEXT_NES_NAME) : table;
+            advance();
+        }
+
+        /**
+         * Moves to the next entry pointing into the data file.
+         */
+        private void advance() {
+            do {
+                index++;
+            } while (index < table.size() && !isInData(table.getSegmentAddr(index)));
+        }
+
+        /**
+         * Checks if a segment address points into the data file.
+         *
+         * @param segmentAddr The segment address.
+         * @return True if the address is within the data file, otherwise false.
+         */
+        private boolean isInData(int segmentAddr) {
+            return (segmentAddr >>> 24) == Globals.TEXT_SEGMENT_NUM && (segmentAddr & 0xFFFFFF) < data.length;
+        }
 
-        // Shift all entries back by one
-        for (int i = 8; i < table.length; i++) {
-            table[i - 8] = table[i];
+        /**
+         * Checks if there are more messages to decode.
+         *
+         * @return True if there are more messages, otherwise false.
+         */
+        @Override
+        public boolean hasNext() {
+            return index < table.size();
         }
 
-        // Make a copy of the table entry for 0xFFFD
-        byte[] msgEntryFFFD = new byte[8];
-        for (int i = 0; i < table.length - 1; i++) {
-            if (((((int) table[i]) & 0xFF) == 0xFF) && (((int) table[i + 1]) & 0xFF) == 0xFD) {
-                System.arraycopy(table, i, msgEntryFFFD, 0, msgEntryFFFD.length);
-                break;
+        /**
+         * Decodes the next message.
+         *
+         * @return The next message as a line of the message source format.
+         */
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
+
+            boolean hasId = idTable != null && index < idTable.size();
+            line.setLength(0);
+            appendHex(line, hasId ? idTable.getTextId(index) : index, 4);
+            line.append(' ');
+            appendHex(line, hasId ? idTable.getTypePos(index) : 0, 2);
+            line.append(' ');
+            Z64MessageCodec.decode(data, table.getSegmentAddr(index) & 0xFFFFFF, data.length, line);
+
+            advance();
+            return line.toString();
         }
 
-        // Write message FFFC to the correct location
-        System.arraycopy(msgEntryFFFC, 0, table, table.length - 24, msgEntryFFFC.length);
-        // Write message FFFD to the correct location
-        System.arraycopy(msgEntryFFFD, 0, table, table.length - 16, msgEntryFFFD.length);
-        // Write message FFFF
-        final byte[] msgEntryFFFF = {-1, -1, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00};
-        System.arraycopy(msgEntryFFFF, 0, table, table.length - 8, msgEntryFFFF.length);
+        /**
+         * Appends a value as zero padded uppercase hex.
+         *
+         * @param out    StringBuilder to append to.
+         * @param value  The value to append.
+         * @param digits The number of digits to write.
+         */
+        private void appendHex(StringBuilder out, int value, int digits) {
+            String hex = Integer.toHexString(value).toUpperCase();
+            for (int i = hex.length(); i < digits; i++) {
+                out.append('0');
+            }
+            out.append(hex);
+        }
+    }
+
+    /**
+     * Compares every language's messages against vanilla by text ID, and writes only the changed
+     * and added messages to an overlay file in the message source format.
+     *
+     * @param vanilla The vanilla text to compare against.
+     * @param outPath The path to the output directory.
+     * @throws RuntimeException if an I/O error occurs during file writing.
+     */
+    public void writeOverlay(Z64Text vanilla, String outPath) {
+        Arrays.stream(Globals.TEXT_BIN_NAMES).parallel()
+                .filter(this::hasMessages)
+                .forEach(binName -> writeOverlay(vanilla, outPath, binName));
+    }
+
+    /**
+     * Writes the changed and added messages of a single language to an overlay file.
+     *
+     * @param vanilla The vanilla text to compare against.
+     * @param outPath The path to the output directory.
+     * @param binName The name of the message data file.
+     * @throws RuntimeException if an I/O error occurs during file writing.
+     */
+    private void writeOverlay(Z64Text vanilla, String outPath, String binName) {
+        byte[] data = messageData.get(binName);
+        Z64MessageTable table = messageTables.get(getTableName(binName));
+        Z64MessageTable idTable = table.isPointerOnly() ? messageTables.get(Globals.CODE_TABLE_TEXT_NES_NAME) : table;
+        boolean hasVanilla = vanilla.hasMessages(binName);
+        byte[] vanillaData = vanilla.messageData.get(binName);
+        Z64MessageTable vanillaTable = vanilla.messageTables.get(getTableName(binName));
+        Z64MessageTable vanillaIdTable = (vanillaTable != null && vanillaTable.isPointerOnly()) ?
+                vanilla.messageTables.get(Globals.CODE_TABLE_TEXT_NES_NAME) : vanillaTable;
+
+        if (idTable == null) {
+            System.out.println(OutputHelpers.YELLOW + "    Skipping " + binName +
+                    ", its text IDs are in " + Globals.CODE_TABLE_TEXT_NES_NAME + OutputHelpers.RESET);
+            return;
+        }
+
+        File outFile = new File(outPath + "/" + binName + Globals.TEXT_OVERLAY_SUFFIX);
+        int numChanged = 0;
+        int numAdded = 0;
+        Iterator<String> lines = messages(binName).iterator();
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(outFile.toPath()), StandardCharsets.UTF_8))) {
+            writer.write("# " + binName + "\n");
+
+            // The iterator visits the same entries, in the same order, as this loop
+            for (int i = 0; i < table.size() && lines.hasNext(); i++) {
+                int segmentAddr = table.getSegmentAddr(i);
+                if ((segmentAddr >>> 24) != Globals.TEXT_SEGMENT_NUM || (segmentAddr & 0xFFFFFF) >= data.length) {
+                    continue;
+                }
+                String line = lines.next();
+
+                int textId = idTable.getTextId(i);
+                int vanillaIndex = (hasVanilla && vanillaIdTable != null) ? vanillaIdTable.indexOf(textId) : -1;
+
+                if (vanillaIndex < 0 || vanillaIndex >= vanillaTable.size()) {
+                    numAdded++;
+                } else if (idTable.getTypePos(i) != vanillaIdTable.getTypePos(vanillaIndex) ||
+                        !sameMessage(data, segmentAddr, vanillaData, vanillaTable.getSegmentAddr(vanillaIndex))) {
+                    numChanged++;
+                } else {
+                    continue;
+                }
+
+                writer.write(line);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        System.out.println("    " + binName + ": " + numChanged + " changed, " + numAdded + " added");
+    }
+
+    /**
+     * Compares the bytes of two messages, up to and including their END control codes.
+     *
+     * @param data               The first message data file.
+     * @param segmentAddr        Segment address of the first message.
+     * @param vanillaData        The second message data file.
+     * @param vanillaSegmentAddr Segment address of the second message.
+     * @return True if both messages are identical, otherwise false.
+     */
+    private static boolean sameMessage(byte[] data, int segmentAddr, byte[] vanillaData, int vanillaSegmentAddr) {
+        int start = segmentAddr & 0xFFFFFF;
+        int vanillaStart = vanillaSegmentAddr & 0xFFFFFF;
+
+        if ((vanillaSegmentAddr >>> 24) != Globals.TEXT_SEGMENT_NUM || vanillaStart >= vanillaData.length) {
+            return false;
+        }
+
+        int length = Z64MessageCodec.findEnd(data, start, data.length) - start;
+        int vanillaLength = Z64MessageCodec.findEnd(vanillaData, vanillaStart, vanillaData.length) - vanillaStart;
+        if (length != vanillaLength) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (data[start + i] != vanillaData[vanillaStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets a parsed message table by name.
+     *
+     * @param tableName The name of the table, such as sNesMessageEntryTable.
+     * @return The parsed table, or null if it was not provided.
+     */
+    public Z64MessageTable getMessageTable(String tableName) {
+        return messageTables.get(tableName);
     }
 
     /**
@@ -0,0 +1,453 @@
+/**
+ * Z64TextureAnalyzer.java
+ * Finds RGBA textures that could be stored in a smaller format without losing any information.
+ * Reports the savings for each file, and can convert textures loaded by the standard gsDPLoadTextureBlock
+ * command sequence to I4, I8 or IA8.
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+public class Z64TextureAnalyzer {
+    // Image formats (G_IM_FMT_*)
+    private static final int G_IM_FMT_RGBA = 0;
+    private static final int G_IM_FMT_CI = 2;
+    private static final int G_IM_FMT_IA = 3;
+    private static final int G_IM_FMT_I = 4;
+
+    // Texel sizes (G_IM_SIZ_*)
+    private static final int G_IM_SIZ_4b = 0;
+    private static final int G_IM_SIZ_8b = 1;
+    private static final int G_IM_SIZ_16b = 2;
+    private static final int G_IM_SIZ_32b = 3;
+
+    // Per texel size values used by gsDPLoadTextureBlock, indexed by G_IM_SIZ_*
+    private static final int[] LOAD_BLOCK_SIZ = {G_IM_SIZ_16b, G_IM_SIZ_16b, G_IM_SIZ_16b, G_IM_SIZ_32b};
+    private static final int[] LOAD_BLOCK_INCR = {3, 1, 0, 0};
+    private static final int[] LOAD_BLOCK_SHIFT = {2, 1, 0, 0};
+    private static final int[] TEXEL_BYTES = {0, 1, 2, 4};
+    private static final int[] LINE_BYTES = {0, 1, 2, 2};
+
+    private static final int G_TX_DXT_FRAC = 11;
+    private static final int CMD_SIZE = Z64DisplayListScanner.CMD_SIZE;
+
+    /**
+     * Class representing a cheaper format a texture could be stored in.
+     */
+    public static class Downgrade {
+        private final Z64DisplayListScanner.Texture texture;
+        private final int fmt;
+        private final int siz;
+        private final int size;
+
+        /**
+         * Constructs a Downgrade.
+         *
+         * @param texture The texture.
+         * @param fmt     The new image format (G_IM_FMT_*).
+         * @param siz     The new texel size (G_IM_SIZ_*).
+         * @param size    The size of the texture in the new format, including any palette.
+         */
+        public Downgrade(Z64DisplayListScanner.Texture texture, int fmt, int siz, int size) {
+            this.texture = texture;
+            this.fmt = fmt;
+            this.siz = siz;
+            this.size = size;
+        }
+
+        /**
+         * Gets the texture.
+         *
+         * @return The texture.
+         */
+        public Z64DisplayListScanner.Texture getTexture() {
+            return texture;
+        }
+
+        /**
+         * Checks if the new format needs a palette.
+         *
+         * @return True for CI4 and CI8, otherwise false.
+         */
+        public boolean isPaletted() {
+            return fmt == G_IM_FMT_CI;
+        }
+
+        /**
+         * Gets the number of bytes saved by the new format.
+         *
+         * @return The number of bytes saved.
+         */
+        public int getSavedBytes() {
+            return texture.getSize() - size;
+        }
+
+        /**
+         * Gets the format name used by ZAPD for the new format, such as "i4" or "ci8".
+         *
+         * @return The format name.
+         */
+        public String getFormatName() {
+            return new Z64DisplayListScanner.Texture(0, fmt, siz, 1, 1, -1).getFormatName();
+        }
+    }
+
+    /**
+     * Prints the textures of a file that could be stored in a smaller format, and the total savings.
+     * When requested, textures are converted to the smaller format where possible.
+     *
+     * @param fileName The name of the file.
+     * @param data     The file data.
+     * @param scanner  The scanner that walked the file's display lists.
+     * @param convert  True to convert the textures, false to only report them.
+     * @return The number of textures converted.
+     */
+    public static int analyzeFile(String fileName, byte[] data, Z64DisplayListScanner scanner, boolean convert) {
+        int savedBytes = 0;
+        int numConverted = 0;
+
+        for (Z64DisplayListScanner.Texture texture : scanner.getTextures()) {
+            Downgrade downgrade = analyze(data, texture, true);
+            if (downgrade == null) {
+                continue;
+            }
+
+            // Only I and IA textures can be converted, so fall back to the best of those
+            if (convert && downgrade.isPaletted()) {
+                Downgrade unpaletted = analyze(data, texture, false);
+                if (unpaletted != null) {
+                    downgrade = unpaletted;
+                }
+            }
+
+            boolean converted = convert && rewrite(data, scanner, downgrade);
+            if (converted) {
+                numConverted++;
+            }
+            savedBytes += downgrade.getSavedBytes();
+
+            System.out.println(OutputHelpers.YELLOW + "    " + fileName + " 0x" +
+                    Integer.toHexString(texture.getOffset()).toUpperCase() + " " + texture.getFormatName() + " " +
+                    texture.getWidth() + "x" + texture.getHeight() + " could be " + downgrade.getFormatName() +
+                    ", saving 0x" + Integer.toHexString(downgrade.getSavedBytes()).toUpperCase() + " bytes" +
+                    (converted ? " (converted)" : "") + OutputHelpers.RESET);
+        }
+
+        if (savedBytes > 0) {
+            System.out.println(OutputHelpers.YELLOW + "    " + fileName + " could save 0x" +
+                    Integer.toHexString(savedBytes).toUpperCase() + " bytes of textures" + OutputHelpers.RESET);
+        }
+        return numConverted;
+    }
+
+    /**
+     * Finds the smallest format a texture could be stored in without losing any information.
+     * Only RGBA16 and RGBA32 textures are checked.
+     *
+     * @param data          The file data.
+     * @param texture       The texture.
+     * @param allowPaletted True to also consider CI4 and CI8.
+     * @return The cheapest format, or null if there is nothing smaller.
+     */
+    public static Downgrade analyze(byte[] data, Z64DisplayListScanner.Texture texture, boolean allowPaletted) {
+        if (texture.isPalette() || texture.getFmt() != G_IM_FMT_RGBA || texture.getSiz() < G_IM_SIZ_16b ||
+                texture.getOffset() + texture.getSize() > data.length) {
+            return null;
+        }
+
+        int[] rgba = decode(data, texture);
+        int numTexels = rgba.length;
+
+        boolean gray = true;
+        boolean intensityAlpha = true;
+        boolean fits4Bit = true;
+        boolean alphaFits4Bit = true;
+        boolean fitsPalette = true;
+        Set<Integer> colors = new HashSet<>();
+
+        for (int texel : rgba) {
+            int r = texel >>> 24;
+            int g = (texel >> 16) & 0xFF;
+            int b = (texel >> 8) & 0xFF;
+            int a = texel & 0xFF;
+
+            gray &= (r == g && g == b);
+            intensityAlpha &= (a == r);
+            fits4Bit &= (r % 0x11 == 0);
+            alphaFits4Bit &= (a % 0x11 == 0);
+
+            // Palettes are RGBA16, so every color must survive the conversion
+            if (fitsPalette) {
+                int color = toRgba16(r, g, b, a);
+                if (color < 0) {
+                    fitsPalette = false;
+                } else if (colors.size() <= 256) {
+                    colors.add(color);
+                }
+            }
+        }
+
+        Downgrade best = null;
+
+        // An intensity texture uses its intensity as alpha too
+        if (gray && intensityAlpha) {
+            best = cheaper(best, new Downgrade(texture, G_IM_FMT_I, fits4Bit ? G_IM_SIZ_4b : G_IM_SIZ_8b,
+                    fits4Bit ? numTexels / 2 : numTexels));
+        }
+        if (gray && fits4Bit && alphaFits4Bit) {
+            best = cheaper(best, new Downgrade(texture, G_IM_FMT_IA, G_IM_SIZ_8b, numTexels));
+        }
+        fitsPalette &= allowPaletted;
+        if (fitsPalette && colors.size() <= 16) {
+            best = cheaper(best, new Downgrade(texture, G_IM_FMT_CI, G_IM_SIZ_4b, numTexels / 2 + colors.size() * 2));
+        } else if (fitsPalette && colors.size() <= 256) {
+            best = cheaper(best, new Downgrade(texture, G_IM_FMT_CI, G_IM_SIZ_8b, numTexels + colors.size() * 2));
+        }
+
+        return (best != null && best.getSavedBytes() > 0) ? best : null;
+    }
+
+    /**
+     * Picks the smaller of two candidate formats.
+     *
+     * @param a The current best candidate, or null.
+     * @param b Another candidate.
+     * @return The candidate saving the most bytes.
+     */
+    private static Downgrade cheaper(Downgrade a, Downgrade b) {
+        return (a == null || b.getSavedBytes() > a.getSavedBytes()) ? b : a;
+    }
+
+    /**
+     * Converts an RGBA32 color to RGBA16, if it can be done without losing information.
+     *
+     * @param r Red component.
+     * @param g Green component.
+     * @param b Blue component.
+     * @param a Alpha component.
+     * @return The RGBA16 color, or -1 if the color can't be represented exactly.
+     */
+    private static int toRgba16(int r, int g, int b, int a) {
+        if ((a != 0 && a != 0xFF) || expand5(r >> 3) != r || expand5(g >> 3) != g || expand5(b >> 3) != b) {
+            return -1;
+        }
+        return ((r >> 3) << 11) | ((g >> 3) << 6) | ((b >> 3) << 1) | (a >> 7);
+    }
+
+    /**
+     * Expands a 5-bit color component to 8 bits.
+     *
+     * @param value The 5-bit component.
+     * @return The 8-bit component.
+     */
+    private static int expand5(int value) {
+        return (value << 3) | (value >> 2);
+    }
+
+    /**
+     * Decodes an RGBA16 or RGBA32 texture into RGBA32 texels.
+     *
+     * @param data    The file data.
+     * @param texture The texture.
+     * @return One RGBA32 value per texel.
+     */
+    private static int[] decode(byte[] data, Z64DisplayListScanner.Texture texture) {
+        int numTexels = texture.getWidth() * texture.getHeight();
+        int[] out = new int[numTexels];
+        int offset = texture.getOffset();
+
+        for (int i = 0; i < numTexels; i++) {
+            if (texture.getSiz() == G_IM_SIZ_32b) {
+                out[i] = Globals.readIntFromByteArray(data, offset + i * 4);
+            } else {
+                int texel = Globals.readShortFromByteArray(data, offset + i * 2);
+                int r = expand5((texel >> 11) & 0x1F);
+                int g = expand5((texel >> 6) & 0x1F);
+                int b = expand5((texel >> 1) & 0x1F);
+                int a = ((texel & 1) != 0) ? 0xFF : 0;
+                out[i] = (r << 24) | (g << 16) | (b << 8) | a;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Converts a texture to a smaller I or IA format in place, and rewrites the commands loading it.
+     * The texture keeps its offset, and the bytes after its new end are left unused.
+     * Nothing is changed unless every G_LOADBLOCK or G_LOADTILE loading the texture is part of a standard
+     * gsDPLoadTextureBlock sequence, with its own G_SETTIMG.
+     *
+     * @param data      The file data.
+     * @param scanner   The scanner that found the texture.
+     * @param downgrade The new format of the texture.
+     * @return True if the texture was converted, otherwise false.
+     */
+    public static boolean rewrite(byte[] data, Z64DisplayListScanner scanner, Downgrade downgrade) {
+        Z64DisplayListScanner.Texture texture = downgrade.getTexture();
+
+        if (downgrade.isPaletted() || texture.getWidth() * texture.getHeight() % 2 != 0) {
+            return false;
+        }
+
+        if (!canRewriteLoads(data, scanner, texture)) {
+            return false;
+        }
+
+        for (Integer cmdOffset : scanner.getTextureReferences(texture.getOffset())) {
+            writeLoadTextureBlock(data, cmdOffset, texture, downgrade.fmt, downgrade.siz);
+        }
+
+        // Encode the texels in the new format
+        int[] rgba = decode(data, texture);
+        int offset = texture.getOffset();
+        for (int i = 0; i < rgba.length; i++) {
+            int intensity = rgba[i] >>> 24;
+            int alpha = rgba[i] & 0xFF;
+
+            if (downgrade.siz == G_IM_SIZ_4b) {
+                int shift = (i % 2 == 0) ? 4 : 0;
+                data[offset + i / 2] = (byte) ((data[offset + i / 2] & ~(0xF << shift)) | ((intensity >> 4) << shift));
+            } else if (downgrade.fmt == G_IM_FMT_IA) {
+                data[offset + i] = (byte) ((intensity & 0xF0) | (alpha >> 4));
+            } else {
+                data[offset + i] = (byte) intensity;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks if every load of a texture can be rewritten for a new format.
+     * Each G_LOADBLOCK or G_LOADTILE must be part of a gsDPLoadTextureBlock sequence, and each G_SETTIMG of the
+     * texture must start one of those sequences, so no load is left reading the texture in its old format.
+     *
+     * @param data    The file data.
+     * @param scanner The scanner that found the texture.
+     * @param texture The texture.
+     * @return True if every load can be rewritten, otherwise false.
+     */
+    private static boolean canRewriteLoads(byte[] data, Z64DisplayListScanner scanner,
+                                           Z64DisplayListScanner.Texture texture) {
+        ArrayList<Integer> loads = scanner.getTextureLoads(texture.getOffset());
+        ArrayList<Integer> refs = scanner.getTextureReferences(texture.getOffset());
+        if (loads.isEmpty() || loads.size() != refs.size()) {
+            return false;
+        }
+
+        for (Integer loadOffset : loads) {
+            int cmdOffset = loadOffset - CMD_SIZE * 3;
+            if (!refs.contains(cmdOffset) || !isLoadTextureBlock(data, cmdOffset, texture)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the commands at an offset are the sequence generated by gsDPLoadTextureBlock for a texture:
+     * G_SETTIMG, G_SETTILE, G_RDPLOADSYNC, G_LOADBLOCK, G_RDPPIPESYNC, G_SETTILE, G_SETTILESIZE.
+     *
+     * @param data      The file data.
+     * @param cmdOffset Offset of the G_SETTIMG command.
+     * @param texture   The texture being loaded.
+     * @return True if the commands match, otherwise false.
+     */
+    private static boolean isLoadTextureBlock(byte[] data, int cmdOffset, Z64DisplayListScanner.Texture texture) {
+        if (cmdOffset < 0 || cmdOffset + CMD_SIZE * 7 > data.length) {
+            return false;
+        }
+
+        final int[] opcodes = {0xFD, 0xF5, 0xE6, 0xF3, 0xE7, 0xF5, 0xF2};
+        for (int i = 0; i < opcodes.length; i++) {
+            if ((data[cmdOffset + i * CMD_SIZE] & 0xFF) != opcodes[i]) {
+                return false;
+            }
+        }
+
+        int siz = texture.getSiz();
+        int width = texture.getWidth();
+        int height = texture.getHeight();
+        int loadTile = data[cmdOffset + CMD_SIZE + 4] & 7;
+        int renderTile = data[cmdOffset + CMD_SIZE * 5 + 4] & 7;
+        int loadBlockW0 = Globals.readIntFromByteArray(data, cmdOffset + CMD_SIZE * 3);
+        int loadBlockW1 = Globals.readIntFromByteArray(data, cmdOffset + CMD_SIZE * 3 + 4);
+
+        return loadTile == Z64DisplayListScanner.G_TX_LOADTILE && renderTile != Z64DisplayListScanner.G_TX_LOADTILE &&
+                (data[cmdOffset + CMD_SIZE * 6 + 4] & 7) == renderTile && (loadBlockW0 & 0xFFFFFF) == 0 &&
+                loadBlockW1 == ((Z64DisplayListScanner.G_TX_LOADTILE << 24) |
+                        (loadBlockLrs(width, height, siz) << 12) | loadBlockDxt(width, siz));
+    }
+
+    /**
+     * Rewrites a gsDPLoadTextureBlock sequence for a new texture format.
+     * The tile settings (TMEM address, clamp, mirror, mask and shift) are kept.
+     *
+     * @param data      The file data.
+     * @param cmdOffset Offset of the G_SETTIMG command.
+     * @param texture   The texture being loaded.
+     * @param fmt       The new image format.
+     * @param siz       The new texel size.
+     */
+    private static void writeLoadTextureBlock(byte[] data, int cmdOffset, Z64DisplayListScanner.Texture texture,
+                                              int fmt, int siz) {
+        int width = texture.getWidth();
+        int height = texture.getHeight();
+        int formatBits = (fmt << 21) | (LOAD_BLOCK_SIZ[siz] << 19);
+
+        // G_SETTIMG
+        int timgW0 = Globals.readIntFromByteArray(data, cmdOffset);
+        Globals.writeIntToByteArray(data, cmdOffset, (timgW0 & ~(0x1F << 19)) | formatBits);
+
+        // G_SETTILE for the load tile
+        int loadTileW0 = Globals.readIntFromByteArray(data, cmdOffset + CMD_SIZE);
+        Globals.writeIntToByteArray(data, cmdOffset + CMD_SIZE, (loadTileW0 & ~(0x1F << 19)) | formatBits);
+
+        // G_LOADBLOCK
+        Globals.writeIntToByteArray(data, cmdOffset + CMD_SIZE * 3 + 4,
+                (Z64DisplayListScanner.G_TX_LOADTILE << 24) | (loadBlockLrs(width, height, siz) << 12) |
+                        loadBlockDxt(width, siz));
+
+        // G_SETTILE for the render tile, with the new line size
+        int renderTileW0 = Globals.readIntFromByteArray(data, cmdOffset + CMD_SIZE * 5);
+        Globals.writeIntToByteArray(data, cmdOffset + CMD_SIZE * 5,
+                (renderTileW0 & ~((0x1F << 19) | (0x1FF << 9))) | (fmt << 21) | (siz << 19) | (tileLine(width, siz) << 9));
+    }
+
+    /**
+     * Calculates the last texel loaded by G_LOADBLOCK, as gsDPLoadTextureBlock does.
+     *
+     * @param width  Width in texels.
+     * @param height Height in texels.
+     * @param siz    Texel size.
+     * @return The lrs field of G_LOADBLOCK.
+     */
+    private static int loadBlockLrs(int width, int height, int siz) {
+        return ((width * height + LOAD_BLOCK_INCR[siz]) >> LOAD_BLOCK_SHIFT[siz]) - 1;
+    }
+
+    /**
+     * Calculates the dxt field of G_LOADBLOCK, as the CALC_DXT macros do.
+     *
+     * @param width Width in texels.
+     * @param siz   Texel size.
+     * @return The dxt field of G_LOADBLOCK.
+     */
+    private static int loadBlockDxt(int width, int siz) {
+        int words = (siz == G_IM_SIZ_4b) ? width / 16 : width * TEXEL_BYTES[siz] / 8;
+        words = Math.max(1, words);
+        return ((1 << G_TX_DXT_FRAC) + words - 1) / words;
+    }
+
+    /**
+     * Calculates the line size of a tile in 64-bit words.
+     *
+     * @param width Width in texels.
+     * @param siz   Texel size.
+     * @return The line field of G_SETTILE.
+     */
+    private static int tileLine(int width, int siz) {
+        return (siz == G_IM_SIZ_4b) ? ((width >> 1) + 7) >> 3 : ((width * LINE_BYTES[siz]) + 7) >> 3;
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Z64TextureIndex.java
+ * Index of the texture data used by scene, room and object files.
+ * Hashes the bytes of every texture found by the display list scanners to find textures stored in more than one file.
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Z64TextureIndex {
+    // Each distinct texture, mapped to the "file 0xOFFSET" locations it is stored at
+    private final Map<ByteRange, ArrayList<String>> locations = new LinkedHashMap<>();
+
+    /**
+     * Adds every texture and palette found in a file to the index.
+     *
+     * @param fileName The name of the file.
+     * @param data     The file data.
+     * @param scanner  The scanner that walked the file's display lists.
+     */
+    public void addFile(String fileName, byte[] data, Z64DisplayListScanner scanner) {
+        for (Z64DisplayListScanner.Texture texture : scanner.getTextures()) {
+            ByteRange payload = new ByteRange(data, texture.getOffset(), texture.getOffset() + texture.getSize());
+            locations.computeIfAbsent(payload, k -> new ArrayList<>())
+                    .add(fileName + " 0x" + Integer.toHexString(texture.getOffset()).toUpperCase());
+        }
+    }
+
+    /**
+     * Prints every texture stored more than once, and the total number of bytes taken up by the extra copies.
+     */
+    public void printDuplicates() {
+        int numDuplicates = 0;
+        int wastedBytes = 0;
+
+        for (Map.Entry<ByteRange, ArrayList<String>> entry : locations.entrySet()) {
+            ArrayList<String> copies = entry.getValue();
+            if (copies.size() < 2) {
+                continue;
+            }
+
+            numDuplicates++;
+            wastedBytes += entry.getKey().getSize() * (copies.size() - 1);
+            System.out.println(OutputHelpers.YELLOW + "    Texture of 0x" +
+                    Integer.toHexString(entry.getKey().getSize()).toUpperCase() + " bytes is stored " + copies.size() +
+                    " times: " + String.join(", ", copies) + OutputHelpers.RESET);
+        }
+
+        if (numDuplicates > 0) {
+            System.out.println(OutputHelpers.YELLOW + "    " + numDuplicates + " duplicated textures use 0x" +
+                    Integer.toHexString(wastedBytes).toUpperCase() + " extra bytes" + OutputHelpers.RESET);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Z64UsageIndex.java
+ * Index of the actors, transition actors and objects listed by every scene and room header.
+ * Entries are stored as columns of primitive arrays, saved next to the output so they can be queried later
+ * without parsing any scenes.
+ */
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Z64UsageIndex {
+    public static final String FILE_NAME = "usage_index.bin";
+
+    public static final int KIND_ACTOR = 0;
+    public static final int KIND_TRANSITION_ACTOR = 1;
+    public static final int KIND_OBJECT = 2;
+    public static final String[] KIND_NAMES = {"actor", "transition", "object"};
+
+    private static final int MAGIC = 0x53485549; // "SHUI"
+    private static final int VERSION = 1;
+
+    private final ArrayList<String> fileNames = new ArrayList<>();
+    private final Map<String, Integer> fileIndices = new LinkedHashMap<>();
+
+    // One entry per row
+    private int numRows = 0;
+    private int[] files = new int[64];
+    private int[] headers = new int[64];
+    private byte[] kinds = new byte[64];
+    private short[] ids = new short[64];
+    private short[] params = new short[64];
+
+    /**
+     * Adds an entry to the index.
+     *
+     * @param fileName     The scene or room file the entry is in.
+     * @param headerOffset Offset of the header listing the entry.
+     * @param kind         KIND_ACTOR, KIND_TRANSITION_ACTOR or KIND_OBJECT.
+     * @param id           Actor or object ID.
+     * @param param        Actor params, or 0 for objects.
+     */
+    public void add(String fileName, int headerOffset, int kind, int id, int param) {
+        Integer fileIndex = fileIndices.get(fileName);
+        if (fileIndex == null) {
+            fileIndex = fileNames.size();
+            fileNames.add(fileName);
+            fileIndices.put(fileName, fileIndex);
+        }
+
+        if (numRows == files.length) {
+            int newLength = files.length * 2;
+            files = Arrays.copyOf(files, newLength);
+            headers = Arrays.copyOf(headers, newLength);
+            kinds = Arrays.copyOf(kinds, newLength);
+            ids = Arrays.copyOf(ids, newLength);
+            params = Arrays.copyOf(params, newLength);
+        }
+
+        files[numRows] = fileIndex;
+        headers[numRows] = headerOffset;
+        kinds[numRows] = (byte) kind;
+        ids[numRows] = (short) id;
+        params[numRows] = (short) param;
+        numRows++;
+    }
+
+    /**
+     * Adds every actor, transition actor and object listed by a scene or room header.
+     *
+     * @param fileName     The scene or room file.
+     * @param data         The file data.
+     * @param headerOffset Offset of the header.
+     * @param cmdOffsets   Offsets of the ACTOR_LIST, TRANSITION_ACTOR_LIST and OBJECT_LIST commands, -1 if missing.
+     */
+    public void addHeader(String fileName, byte[] data, int headerOffset, int[] cmdOffsets) {
+        final int[] entrySizes = {0x10, 0x10, 2};
+        final int[] idFields = {0x0, 0x4, 0x0};
+
+        for (int kind = KIND_ACTOR; kind <= KIND_OBJECT; kind++) {
+            int cmdOffset = cmdOffsets[kind];
+            if (cmdOffset < 0) {
+                continue;
+            }
+
+            int count = data[cmdOffset + 1] & 0xFF;
+            int listOffset = Globals.readIntFromByteArray(data, cmdOffset + 4) & 0xFFFFFF;
+            if (listOffset + count * entrySizes[kind] > data.length) {
+                continue;
+            }
+
+            for (int i = 0; i < count; i++) {
+                int entry = listOffset + i * entrySizes[kind];
+                int param = (kind == KIND_OBJECT) ? 0 : Globals.readShortFromByteArray(data, entry + 0xE);
+                add(fileName, headerOffset, kind, Globals.readShortFromByteArray(data, entry + idFields[kind]), param);
+            }
+        }
+    }
+
+    /**
+     * Saves the index to a file in the output directory.
+     *
+     * @param outPath The output directory.
+     * @throws RuntimeException if an error occurs during file writing.
+     */
+    public void save(String outPath) {
+        File outFile = new File(outPath + "/" + FILE_NAME);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(outFile.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(fileNames.size());
+            for (String name : fileNames) {
+                out.writeUTF(name);
+            }
+
+            // Each column is stored whole, one after another
+            out.writeInt(numRows);
+            for (int i = 0; i < numRows; i++) {
+                out.writeInt(files[i]);
+            }
+            for (int i = 0; i < numRows; i++) {
+                out.writeInt(headers[i]);
+            }
+            out.write(kinds, 0, numRows);
+            for (int i = 0; i < numRows; i++) {
+                out.writeShort(ids[i]);
+            }
+            for (int i = 0; i < numRows; i++) {
+                out.writeShort(params[i]);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Loads an index saved by save().
+     *
+     * @param file The index file.
+     * @return The loaded index.
+     * @throws IllegalArgumentException if the file is not a usage index.
+     * @throws RuntimeException         if an error occurs while reading the file.
+     */
+    public static Z64UsageIndex load(File file) {
+        Z64UsageIndex index = new Z64UsageIndex();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalArgumentException("Not a usage index: " + file);
+            }
+
+            int numFiles = in.readInt();
+            for (int i = 0; i < numFiles; i++) {
+                String name = in.readUTF();
+                index.fileIndices.put(name, i);
+                index.fileNames.add(name);
+            }
+
+            int numRows = in.readInt();
+            index.numRows = numRows;
+            index.files = new int[numRows];
+            index.headers = new int[numRows];
+            index.kinds = new byte[numRows];
+            index.ids = new short[numRows];
+            index.params = new short[numRows];
+
+            for (int i = 0; i < numRows; i++) {
+                index.files[i] = in.readInt();
+            }
+            for (int i = 0; i < numRows; i++) {
+                index.headers[i] = in.readInt();
+            }
+            in.readFully(index.kinds);
+            for (int i = 0; i < numRows; i++) {
+                index.ids[i] = in.readShort();
+            }
+            for (int i = 0; i < numRows; i++) {
+                index.params[i] = in.readShort();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read usage index: " + file, e);
+        }
+
+        return index;
+    }
+
+    /**
+     * Prints every file and header listing an actor, transition actor or object, with how often it is listed.
+     *
+     * @param kind KIND_ACTOR, KIND_TRANSITION_ACTOR or KIND_OBJECT.
+     * @param id   Actor or object ID.
+     * @return The number of entries found.
+     */
+    public int query(int kind, int id) {
+        // Count the matches per file and header, keeping the order they were added in
+        Map<Long, Integer> counts = new LinkedHashMap<>();
+        int numFound = 0;
+
+        for (int i = 0; i < numRows; i++) {
+            if (kinds[i] == kind && (ids[i] & 0xFFFF) == id) {
+                counts.merge(((long) files[i] << 32) | (headers[i] & 0xFFFFFFFFL), 1, Integer::sum);
+                numFound++;
+            }
+        }
+
+        for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
+            String fileName = fileNames.get((int) (entry.getKey() >>> 32));
+            int headerOffset = (int) (long) entry.getKey();
+            System.out.println(fileName + " (header 0x" + Integer.toHexString(headerOffset).toUpperCase() + "): " +
+                    entry.getValue());
+        }
+
+        return numFound;
+    }
+}
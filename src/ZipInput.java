@@ -0,0 +1,205 @@
+/**
+ * ZipInput.java
+ * Class representing a zip archive used as the input directory.
+ * The archive is read with java.util.zip.ZipFile, which handles ZIP64 archives and entries with data descriptors,
+ * and every entry is read and inflated in parallel. When only planning the layout, entries are left unread apart
+ * from the Yaz0 header, and are read from the archive again if they are needed.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+public class ZipInput {
+    private final File zipFile;
+    private final String zipName;
+    private final ArrayList<RomFile> files = new ArrayList<>();
+
+    /**
+     * Constructor for ZipInput.
+     * Entries are named by their file name alone, since hack assets are often zipped inside a folder.
+     *
+     * @param f        The zip archive.
+     * @param included Filter on the path of each entry within the archive.
+     * @param readData True to read every entry now, false to only read entries when they are used.
+     * @throws IllegalArgumentException if the archive is malformed, encrypted or uses an unsupported compression
+     *                                  method, or holds two files with the same name.
+     * @throws RuntimeException         if the archive can't be read.
+     */
+    public ZipInput(File f, Predicate<Path> included, boolean readData) {
+        zipFile = f;
+        zipName = f.getName();
+
+        try (ZipFile zip = new ZipFile(f)) {
+            readEntries(zip, included, readData);
+        } catch (ZipException e) {
+            throw new IllegalArgumentException(zipName + " is not a valid zip archive: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read zip: " + zipName, e);
+        }
+    }
+
+    /**
+     * Gets every file in the archive, in central directory order.
+     *
+     * @return The list of files.
+     */
+    public ArrayList<RomFile> getFiles() {
+        return files;
+    }
+
+    /**
+     * Lists every file entry of the archive that passes the filter, then reads them all in parallel.
+     *
+     * @param zip      The open archive.
+     * @param included Filter on the path of each entry within the archive.
+     * @param readData True to read every entry, false to only read their Yaz0 headers.
+     * @throws IllegalArgumentException if two files have the same name, or an entry can't be read.
+     */
+    private void readEntries(ZipFile zip, Predicate<Path> included, boolean readData) {
+        Set<String> names = new HashSet<>();
+        List<ZipEntry> entries = new ArrayList<>();
+
+        Enumeration<? extends ZipEntry> it = zip.entries();
+        while (it.hasMoreElements()) {
+            ZipEntry entry = it.nextElement();
+            String path = entry.getName();
+
+            // Skip directories and the metadata added by macOS
+            String name = getFileName(entry);
+            if (entry.isDirectory() || name.isEmpty() || path.startsWith("__MACOSX/") || name.startsWith("._")) {
+                continue;
+            }
+            if (!included.test(Paths.get(path))) {
+                continue;
+            }
+
+            if (!names.add(name)) {
+                throw new IllegalArgumentException(zipName + " holds more than one file named " + name);
+            }
+            entries.add(entry);
+        }
+
+        // The collected list keeps the entries in their original order
+        files.addAll(entries.parallelStream()
+                .map(entry -> readData ? readFile(zip, entry) : deferFile(zip, entry))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Reads an entry into a RomFile, decompressing it if it is Yaz0 compressed.
+     *
+     * @param zip   The open archive.
+     * @param entry The entry to read.
+     * @return The RomFile.
+     */
+    private RomFile readFile(ZipFile zip, ZipEntry entry) {
+        byte[] data = readEntry(zip, entry, getEntrySize(entry));
+        return new RomFile(Yaz0.isCompressed(data) ? Yaz0.decode(data) : data, getFileName(entry));
+    }
+
+    /**
+     * Creates a RomFile that reads an entry only when its data is needed, opening the archive again.
+     * Only the start of the entry is read now, for the decompressed size of Yaz0 compressed files.
+     *
+     * @param zip   The open archive.
+     * @param entry The entry.
+     * @return The RomFile.
+     */
+    private RomFile deferFile(ZipFile zip, ZipEntry entry) {
+        int size = getEntrySize(entry);
+        byte[] header = readEntry(zip, entry, Math.min(size, Yaz0.HEADER_SIZE));
+        int decodedSize = Yaz0.isCompressed(header) ? Yaz0.getDecodedSize(header) : size;
+
+        String path = entry.getName();
+        return new RomFile(() -> {
+            try (ZipFile reopened = new ZipFile(zipFile)) {
+                ZipEntry reopenedEntry = reopened.getEntry(path);
+                return readEntry(reopened, reopenedEntry, getEntrySize(reopenedEntry));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read " + path + " from " + zipName, e);
+            }
+        }, decodedSize, getFileName(entry));
+    }
+
+    /**
+     * Gets the name of an entry without the folders it is in.
+     *
+     * @param entry The entry.
+     * @return The file name.
+     */
+    private static String getFileName(ZipEntry entry) {
+        String path = entry.getName();
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Gets the uncompressed size of an entry.
+     *
+     * @param entry The entry.
+     * @return The size in bytes.
+     * @throws IllegalArgumentException if the size is unknown or too large to read into a byte array.
+     */
+    private int getEntrySize(ZipEntry entry) {
+        if (entry.getSize() < 0) {
+            throw new IllegalArgumentException(zipName + ": " + entry.getName() + " has no uncompressed size");
+        }
+        if (entry.getSize() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(zipName + ": " + entry.getName() +
+                    " is too large to read into a byte array");
+        }
+        return (int) entry.getSize();
+    }
+
+    /**
+     * Reads and inflates the start of an entry. The CRC-32 is checked when the whole entry is read.
+     *
+     * @param zip    The open archive.
+     * @param entry  The entry to read.
+     * @param length The number of bytes to read.
+     * @return The uncompressed data.
+     * @throws IllegalArgumentException if the entry is truncated or malformed.
+     * @throws RuntimeException         if the entry can't be read.
+     */
+    private byte[] readEntry(ZipFile zip, ZipEntry entry, int length) {
+        String path = entry.getName();
+        byte[] out = new byte[length];
+        try (InputStream in = zip.getInputStream(entry)) {
+            int read = 0;
+            while (read < out.length) {
+                int n = in.read(out, read, out.length - read);
+                if (n < 0) {
+                    throw new IllegalArgumentException(zipName + ": " + path + " is truncated");
+                }
+                read += n;
+            }
+        } catch (ZipException e) {
+            throw new IllegalArgumentException(zipName + ": " + path + " is malformed: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read " + path + " from " + zipName, e);
+        }
+
+        if (length == entry.getSize()) {
+            CRC32 crc = new CRC32();
+            crc.update(out);
+            if (entry.getCrc() != -1 && crc.getValue() != entry.getCrc()) {
+                throw new IllegalArgumentException(zipName + ": " + path + " failed its CRC check");
+            }
+        }
+
+        return out;
+    }
+}